@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.benchmarks;
+
+import java.util.Random;
+
+import com.github.antag99.retinazer.Component;
+import com.github.antag99.retinazer.Engine;
+import com.github.antag99.retinazer.EngineConfig;
+import com.github.antag99.retinazer.FamilyConfig;
+import com.github.antag99.retinazer.Mapper;
+
+/**
+ * Shared world construction for the benchmarks. All randomness is seeded, so
+ * that the same parameters always produce the same world; this keeps results
+ * comparable between commits.
+ */
+final class BenchmarkWorld {
+    private BenchmarkWorld() {
+    }
+
+    static final long SEED = 0x5EED_CAFEL;
+
+    public static final class ComponentA implements Component {
+        public float value;
+    }
+
+    public static final class ComponentB implements Component {
+        public float value;
+    }
+
+    public static final class ComponentC implements Component {
+        public float value;
+    }
+
+    public static final class ComponentD implements Component {
+        public float value;
+    }
+
+    public static final class ComponentE implements Component {
+        public float value;
+    }
+
+    public static final class ComponentF implements Component {
+        public float value;
+    }
+
+    public static final class ComponentG implements Component {
+        public float value;
+    }
+
+    public static final class ComponentH implements Component {
+        public float value;
+    }
+
+    @SuppressWarnings("unchecked")
+    static final Class<? extends Component>[] COMPONENT_TYPES = new Class[] {
+            ComponentA.class, ComponentB.class, ComponentC.class, ComponentD.class,
+            ComponentE.class, ComponentF.class, ComponentG.class, ComponentH.class,
+    };
+
+    /**
+     * Gets the mappers for the first {@code componentCount} component types.
+     */
+    static Mapper<?>[] getMappers(Engine engine, int componentCount) {
+        if (componentCount > COMPONENT_TYPES.length) {
+            throw new IllegalArgumentException("componentCount > " + COMPONENT_TYPES.length);
+        }
+        Mapper<?>[] mappers = new Mapper<?>[componentCount];
+        for (int i = 0; i < componentCount; i++) {
+            mappers[i] = engine.getMapper(COMPONENT_TYPES[i]);
+        }
+        return mappers;
+    }
+
+    /**
+     * Gets the amount of distinct families that can be formed by the first
+     * {@code componentCount} component types, that is, the number of their
+     * non-empty subsets.
+     */
+    static int getMaxFamilyCount(int componentCount) {
+        return (1 << componentCount) - 1;
+    }
+
+    /**
+     * Creates the configuration of family {@code index}, which requires the
+     * first {@code componentCount} component types present in the bits of
+     * {@code index + 1}.
+     */
+    @SuppressWarnings("unchecked")
+    static FamilyConfig getFamily(int index, int componentCount) {
+        if (index >= getMaxFamilyCount(componentCount)) {
+            throw new IllegalArgumentException("Only " + getMaxFamilyCount(componentCount)
+                    + " distinct families exist with " + componentCount + " components");
+        }
+        int subset = index + 1;
+        FamilyConfig config = new FamilyConfig();
+        for (int i = 0; i < componentCount; i++) {
+            if ((subset & (1 << i)) != 0) {
+                config.with(COMPONENT_TYPES[i]);
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Creates an engine populated with {@code entityCount} entities, where each
+     * entity has each of the first {@code componentCount} components with a
+     * probability of one half. {@code familyCount} distinct families are
+     * registered, which must not exceed
+     * {@link #getMaxFamilyCount(int) getMaxFamilyCount(componentCount)}.
+     */
+    static Engine create(EngineConfig config, int entityCount, int componentCount, int familyCount) {
+        Engine engine = new Engine(config);
+        Mapper<?>[] mappers = getMappers(engine, componentCount);
+        for (int i = 0; i < familyCount; i++) {
+            engine.getFamily(getFamily(i, componentCount));
+        }
+        Random random = new Random(SEED);
+        for (int i = 0; i < entityCount; i++) {
+            int entity = engine.createEntity();
+            for (Mapper<?> mapper : mappers) {
+                if (random.nextBoolean()) {
+                    mapper.create(entity);
+                }
+            }
+        }
+        engine.update();
+        return engine;
+    }
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.antag99.retinazer.Engine;
+import com.github.antag99.retinazer.EngineConfig;
+import com.github.antag99.retinazer.Mapper;
+import com.github.antag99.retinazer.util.IntBag;
+
+/**
+ * Measures a frame in which a fraction of the entities are destroyed and the
+ * same amount of new entities are created, including the flush that follows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EntityChurnBenchmark {
+    @Param({ "10000", "200000" })
+    public int entityCount;
+
+    @Param({ "4" })
+    public int componentCount;
+
+    /** All distinct families of the components */
+    @Param({ "15" })
+    public int familyCount;
+
+    /** Number of entities destroyed and created per frame */
+    @Param({ "100", "5000" })
+    public int churn;
+
+    private Engine engine;
+    private Mapper<?>[] mappers;
+    private Random random;
+    private IntBag alive;
+
+    @Setup
+    public void setup() {
+        engine = BenchmarkWorld.create(new EngineConfig(), entityCount, componentCount, familyCount);
+        mappers = BenchmarkWorld.getMappers(engine, componentCount);
+        random = new Random(BenchmarkWorld.SEED);
+        alive = new IntBag(entityCount);
+        int[] buffer = engine.getEntities().getIndices().buffer;
+        System.arraycopy(buffer, 0, alive.buffer, 0, entityCount);
+    }
+
+    @Benchmark
+    public Engine churn() {
+        Engine engine = this.engine;
+        Mapper<?>[] mappers = this.mappers;
+        Random random = this.random;
+        int[] alive = this.alive.buffer;
+        int entityCount = this.entityCount;
+
+        for (int i = 0, n = churn; i < n; i++) {
+            int slot = random.nextInt(entityCount);
+            engine.destroyEntity(alive[slot]);
+            // Destroyed entities are not reclaimed until the flush, so the
+            // replacement will receive a fresh index.
+            int entity = engine.createEntity();
+            for (Mapper<?> mapper : mappers) {
+                if (random.nextBoolean()) {
+                    mapper.create(entity);
+                }
+            }
+            alive[slot] = entity;
+        }
+
+        engine.update();
+        return engine;
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.antag99.retinazer.Engine;
+import com.github.antag99.retinazer.EngineConfig;
+import com.github.antag99.retinazer.EntityProcessorSystem;
+import com.github.antag99.retinazer.Family;
+import com.github.antag99.retinazer.Mapper;
+import com.github.antag99.retinazer.benchmarks.BenchmarkWorld.ComponentA;
+
+/**
+ * Measures {@link Engine#update()} for a world without structural changes,
+ * where the time is dominated by {@link EntityProcessorSystem} iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EntityProcessorBenchmark {
+    @Param({ "10000", "200000" })
+    public int entityCount;
+
+    @Param({ "4" })
+    public int componentCount;
+
+    /** All distinct families of the components */
+    @Param({ "15" })
+    public int familyCount;
+
+    public static final class IncrementSystem extends EntityProcessorSystem {
+        private Mapper<ComponentA> mComponentA;
+
+        public IncrementSystem() {
+            super(Family.with(ComponentA.class));
+        }
+
+        @Override
+        protected void process(int entity) {
+            mComponentA.get(entity).value += 1f;
+        }
+    }
+
+    private Engine engine;
+
+    @Setup
+    public void setup() {
+        EngineConfig config = new EngineConfig().addSystem(new IncrementSystem());
+        engine = BenchmarkWorld.create(config, entityCount, componentCount, familyCount);
+    }
+
+    @Benchmark
+    public Engine update() {
+        engine.update();
+        return engine;
+    }
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.antag99.retinazer.Engine;
+import com.github.antag99.retinazer.EngineConfig;
+import com.github.antag99.retinazer.Mapper;
+
+/**
+ * Measures the cost of a flush, that is, updating family membership after a
+ * small amount of entities changed their components. This is the fixed cost
+ * paid after every system that modifies any entity.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FlushBenchmark {
+    @Param({ "10000", "200000" })
+    public int entityCount;
+
+    @Param({ "6", "8" })
+    public int componentCount;
+
+    /** At most {@link BenchmarkWorld#getMaxFamilyCount} of the components */
+    @Param({ "1", "32" })
+    public int familyCount;
+
+    /** Number of entities that change per flush */
+    @Param({ "3", "1000" })
+    public int changes;
+
+    private Engine engine;
+    private Mapper<?>[] mappers;
+    private Random random;
+    private int[] entities;
+
+    @Setup
+    public void setup() {
+        engine = BenchmarkWorld.create(new EngineConfig(), entityCount, componentCount, familyCount);
+        mappers = BenchmarkWorld.getMappers(engine, componentCount);
+        random = new Random(BenchmarkWorld.SEED);
+        entities = new int[entityCount];
+        System.arraycopy(engine.getEntities().getIndices().buffer, 0, entities, 0, entityCount);
+    }
+
+    @Benchmark
+    public Engine flush() {
+        Engine engine = this.engine;
+        Mapper<?>[] mappers = this.mappers;
+        Random random = this.random;
+        int[] entities = this.entities;
+
+        for (int i = 0, n = changes; i < n; i++) {
+            int entity = entities[random.nextInt(entities.length)];
+            Mapper<?> mapper = mappers[random.nextInt(mappers.length)];
+            if (mapper.has(entity)) {
+                mapper.remove(entity);
+            } else {
+                mapper.create(entity);
+            }
+        }
+
+        // No systems are registered, so this is a single flush
+        engine.update();
+        return engine;
+    }
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.antag99.retinazer.Engine;
+import com.github.antag99.retinazer.EngineConfig;
+import com.github.antag99.retinazer.Mapper;
+
+/**
+ * Measures the mapper operations themselves: creating, retrieving and
+ * removing components of random entities. Flushes are performed outside of
+ * the measurement; see {@link FlushBenchmark} for their cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+    @State(Scope.Thread)
+    public static class World {
+        @Param({ "10000", "200000" })
+        public int entityCount;
+
+        @Param({ "4" })
+        public int componentCount;
+
+        /**
+         * Number of operations per invocation; large enough for the
+         * per-invocation fixtures not to dominate the measurement.
+         */
+        @Param({ "1000", "10000" })
+        public int operations;
+
+        Engine engine;
+        Mapper<?>[] mappers;
+        /** Mapper of a component type that no entity of the world has */
+        Mapper<?> target;
+        /** Entities in a random order; each invocation uses the next window */
+        int[] entities;
+        int offset;
+
+        @Setup
+        public void setup() {
+            engine = BenchmarkWorld.create(new EngineConfig(), entityCount, componentCount, 0);
+            mappers = BenchmarkWorld.getMappers(engine, componentCount);
+            target = BenchmarkWorld.getMappers(engine, componentCount + 1)[componentCount];
+            entities = new int[entityCount];
+            System.arraycopy(engine.getEntities().getIndices().buffer, 0, entities, 0, entityCount);
+            Random random = new Random(BenchmarkWorld.SEED);
+            for (int i = entities.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int entity = entities[i];
+                entities[i] = entities[j];
+                entities[j] = entity;
+            }
+        }
+
+        /** Moves to the next window of {@link #operations} entities */
+        void nextWindow() {
+            offset += operations;
+            if (offset + operations > entities.length) {
+                offset = 0;
+            }
+        }
+    }
+
+    /** Removes the created components again after each invocation */
+    @State(Scope.Thread)
+    public static class CreateState extends World {
+        @Setup(Level.Invocation)
+        public void beforeInvocation() {
+            nextWindow();
+        }
+
+        @TearDown(Level.Invocation)
+        public void afterInvocation() {
+            for (int i = offset, n = i + operations; i < n; i++) {
+                target.remove(entities[i]);
+            }
+            engine.update();
+        }
+    }
+
+    /** Creates the components to remove before each invocation */
+    @State(Scope.Thread)
+    public static class RemoveState extends World {
+        @Setup(Level.Invocation)
+        public void beforeInvocation() {
+            nextWindow();
+            for (int i = offset, n = i + operations; i < n; i++) {
+                target.create(entities[i]);
+            }
+            engine.update();
+        }
+
+        @TearDown(Level.Invocation)
+        public void afterInvocation() {
+            engine.update();
+        }
+    }
+
+    @Benchmark
+    public Mapper<?> create(CreateState world) {
+        Mapper<?> target = world.target;
+        int[] entities = world.entities;
+        for (int i = world.offset, n = i + world.operations; i < n; i++) {
+            target.create(entities[i]);
+        }
+        return target;
+    }
+
+    @Benchmark
+    public int get(World world) {
+        Mapper<?>[] mappers = world.mappers;
+        int[] entities = world.entities;
+        int found = 0;
+        for (int i = 0, n = Math.min(world.operations, entities.length); i < n; i++) {
+            if (mappers[i % mappers.length].get(entities[i]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public Mapper<?> remove(RemoveState world) {
+        Mapper<?> target = world.target;
+        int[] entities = world.entities;
+        for (int i = world.offset, n = i + world.operations; i < n; i++) {
+            target.remove(entities[i]);
+        }
+        return target;
+    }
+}
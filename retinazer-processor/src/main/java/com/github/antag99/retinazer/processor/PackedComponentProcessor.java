@@ -0,0 +1,381 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates the implementation of each abstract {@code PackedComponent}
+ * type, named {@code <binary name of the class>$$Packed}. Each abstract
+ * accessor of the type refers to a field, whose values are stored in a bag of
+ * the matching primitive type; {@code boolean} fields are stored as bytes.
+ * The following accessors are recognized, for a field {@code x} of type
+ * {@code T}:
+ *
+ * <ul>
+ * <li>{@code T getX()} (or {@code boolean isX()}) and {@code void setX(T)},
+ * accessing the entity the flyweight refers to</li>
+ * <li>{@code T getX(int)} (or {@code boolean isX(int)}) and
+ * {@code void setX(int, T)}, accessing the given entity</li>
+ * </ul>
+ *
+ * <p>
+ * Other abstract methods, and fields named {@code index} or after a Java
+ * keyword, are reported as errors. Subclasses of
+ * {@code OffHeapComponent} are not handled.
+ */
+@SupportedAnnotationTypes("*")
+public final class PackedComponentProcessor extends AbstractProcessor {
+    private static final String PACKAGE = "com.github.antag99.retinazer";
+    private static final String PACKED_COMPONENT = PACKAGE + ".PackedComponent";
+    private static final String OFF_HEAP_COMPONENT = PACKAGE + ".OffHeapComponent";
+    private static final String PACKED_SUFFIX = "$$Packed";
+
+    /** A field of a packed component type */
+    private static final class PackedField {
+        final String name;
+        final TypeKind kind;
+
+        PackedField(String name, TypeKind kind) {
+            this.name = name;
+            this.kind = kind;
+        }
+
+        String getBagType() {
+            switch (kind) {
+            case BOOLEAN:
+            case BYTE:
+                return PACKAGE + ".util.ByteBag";
+            case SHORT:
+                return PACKAGE + ".util.ShortBag";
+            case INT:
+                return PACKAGE + ".util.IntBag";
+            case LONG:
+                return PACKAGE + ".util.LongBag";
+            case FLOAT:
+                return PACKAGE + ".util.FloatBag";
+            case DOUBLE:
+                return PACKAGE + ".util.DoubleBag";
+            default:
+                throw new AssertionError(kind);
+            }
+        }
+
+        String getZero() {
+            switch (kind) {
+            case BOOLEAN:
+            case BYTE:
+                return "(byte) 0";
+            case SHORT:
+                return "(short) 0";
+            case LONG:
+                return "0L";
+            case FLOAT:
+                return "0f";
+            case DOUBLE:
+                return "0d";
+            default:
+                return "0";
+            }
+        }
+
+        /** Reference to the bag; qualified, as parameters may have the same name */
+        String bag() {
+            return "this." + name;
+        }
+
+        String read(String index) {
+            String value = bag() + ".buffer[" + index + "]";
+            return kind == TypeKind.BOOLEAN ? value + " != 0" : value;
+        }
+
+        String write(String index, String value) {
+            if (kind == TypeKind.BOOLEAN)
+                value = "(byte) (" + value + " ? 1 : 0)";
+            return bag() + ".buffer[" + index + "] = " + value;
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (processingEnv.getElementUtils().getTypeElement(PACKED_COMPONENT) == null) {
+            // retinazer is not on the class path
+            return false;
+        }
+
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            processType(type);
+        }
+
+        // Other processors may be interested in the same elements
+        return false;
+    }
+
+    private void processType(TypeElement type) {
+        if (type.getKind() == ElementKind.CLASS && type.getModifiers().contains(Modifier.ABSTRACT)
+                && isSubclass(type, PACKED_COMPONENT) && !isSubclass(type, OFF_HEAP_COMPONENT)) {
+            generateImplementation(type);
+        }
+
+        for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+            processType(member);
+        }
+    }
+
+    private static boolean isSubclass(TypeElement type, String superclassName) {
+        for (TypeMirror superclass = type.getSuperclass(); superclass.getKind() == TypeKind.DECLARED;) {
+            TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+            if (element.getQualifiedName().contentEquals(superclassName))
+                return true;
+            superclass = element.getSuperclass();
+        }
+        return false;
+    }
+
+    private void error(String message, Element element) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * Gets the name of the field accessed by the given accessor.
+     *
+     * @return the field name, or {@code null} if the method has no known prefix.
+     */
+    private static String getFieldName(String methodName) {
+        String rest;
+        if (methodName.startsWith("get") || methodName.startsWith("set")) {
+            rest = methodName.substring(3);
+        } else if (methodName.startsWith("is")) {
+            rest = methodName.substring(2);
+        } else {
+            return null;
+        }
+        if (rest.isEmpty())
+            return null;
+        return Character.toLowerCase(rest.charAt(0)) + rest.substring(1);
+    }
+
+    private static boolean isStorable(TypeMirror type) {
+        return type.getKind().isPrimitive() && type.getKind() != TypeKind.CHAR;
+    }
+
+    private void generateImplementation(TypeElement type) {
+        if (!type.getTypeParameters().isEmpty()) {
+            error("Packed component types cannot be generic", type);
+            return;
+        }
+        for (Element element = type; element.getKind() != ElementKind.PACKAGE; element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                error("Abstract packed component types cannot be private", type);
+                return;
+            }
+        }
+
+        Map<String, PackedField> fields = new LinkedHashMap<>();
+        List<ExecutableElement> accessors = new ArrayList<>();
+        boolean valid = true;
+
+        for (ExecutableElement method : ElementFilter.methodsIn(
+                processingEnv.getElementUtils().getAllMembers(type))) {
+            if (!method.getModifiers().contains(Modifier.ABSTRACT))
+                continue;
+            String methodName = method.getSimpleName().toString();
+            List<? extends TypeMirror> parameters = getParameterTypes(method);
+            if (methodName.equals("reset") && parameters.isEmpty())
+                continue;
+
+            TypeMirror fieldType = getFieldType(method, parameters);
+            String fieldName = getFieldName(methodName);
+            if (fieldType == null || fieldName == null) {
+                error("Not a packed component accessor: " + methodName, method);
+                valid = false;
+                continue;
+            }
+            if (fieldName.equals("index") || SourceVersion.isKeyword(fieldName)) {
+                // The bag could not be declared, or would hide PackedComponent.index
+                error("Reserved packed component field name: " + fieldName, method);
+                valid = false;
+                continue;
+            }
+            if (methodName.startsWith("is") && fieldType.getKind() != TypeKind.BOOLEAN) {
+                error("Only boolean accessors can start with 'is': " + methodName, method);
+                valid = false;
+                continue;
+            }
+
+            PackedField field = fields.get(fieldName);
+            if (field == null) {
+                fields.put(fieldName, new PackedField(fieldName, fieldType.getKind()));
+            } else if (field.kind != fieldType.getKind()) {
+                error("Inconsistent type of field " + fieldName, method);
+                valid = false;
+                continue;
+            }
+            accessors.add(method);
+        }
+
+        if (valid) {
+            writeImplementation(type, fields, accessors);
+        }
+    }
+
+    private List<? extends TypeMirror> getParameterTypes(ExecutableElement method) {
+        List<TypeMirror> types = new ArrayList<>();
+        for (Element parameter : method.getParameters())
+            types.add(parameter.asType());
+        return types;
+    }
+
+    /**
+     * Gets the type of the field accessed by the given method.
+     *
+     * @return the type, or {@code null} if the method is not an accessor.
+     */
+    private static TypeMirror getFieldType(ExecutableElement method, List<? extends TypeMirror> parameters) {
+        String name = method.getSimpleName().toString();
+        TypeMirror returnType = method.getReturnType();
+        boolean indexed = !parameters.isEmpty() && parameters.get(0).getKind() == TypeKind.INT;
+        if (name.startsWith("set")) {
+            if (returnType.getKind() != TypeKind.VOID)
+                return null;
+            if (parameters.size() == 1 && isStorable(parameters.get(0)))
+                return parameters.get(0);
+            if (parameters.size() == 2 && indexed && isStorable(parameters.get(1)))
+                return parameters.get(1);
+            return null;
+        }
+        if (!isStorable(returnType))
+            return null;
+        if (parameters.isEmpty() || (parameters.size() == 1 && indexed))
+            return returnType;
+        return null;
+    }
+
+    private static String getModifiers(ExecutableElement method) {
+        if (method.getModifiers().contains(Modifier.PUBLIC))
+            return "public ";
+        if (method.getModifiers().contains(Modifier.PROTECTED))
+            return "protected ";
+        return "";
+    }
+
+    private void writeImplementation(TypeElement type, Map<String, PackedField> fields,
+            List<ExecutableElement> accessors) {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = (packageName.isEmpty() ? binaryName
+                : binaryName.substring(packageName.length() + 1)) + PACKED_SUFFIX;
+        String typeName = type.getQualifiedName().toString();
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty())
+            source.append("package ").append(packageName).append(";\n\n");
+        source.append("/** Generated by ").append(PackedComponentProcessor.class.getName()).append(" */\n");
+        source.append("public final class ").append(simpleName).append(" extends ").append(typeName).append(" {\n");
+
+        for (PackedField field : fields.values()) {
+            source.append("    private final ").append(field.getBagType()).append(' ').append(field.name)
+                    .append(" = new ").append(field.getBagType()).append("();\n");
+        }
+
+        for (ExecutableElement accessor : accessors) {
+            String name = accessor.getSimpleName().toString();
+            List<? extends TypeMirror> parameters = getParameterTypes(accessor);
+            PackedField field = fields.get(getFieldName(name));
+            String valueType = getFieldType(accessor, parameters).toString();
+            source.append("\n    @Override\n    ").append(getModifiers(accessor));
+            if (name.startsWith("set")) {
+                if (parameters.size() == 1) {
+                    source.append("void ").append(name).append('(').append(valueType).append(" value) {\n");
+                    source.append("        ").append(field.write("index", "value")).append(";\n");
+                } else {
+                    source.append("void ").append(name).append("(int entity, ").append(valueType).append(" value) {\n");
+                    source.append("        ").append(field.write("entity", "value")).append(";\n");
+                }
+            } else {
+                if (parameters.isEmpty()) {
+                    source.append(valueType).append(' ').append(name).append("() {\n");
+                    source.append("        return ").append(field.read("index")).append(";\n");
+                } else {
+                    source.append(valueType).append(' ').append(name).append("(int entity) {\n");
+                    source.append("        return ").append(field.read("entity")).append(";\n");
+                }
+            }
+            source.append("    }\n");
+        }
+
+        source.append("\n    @Override\n    protected void reset() {\n");
+        for (PackedField field : fields.values()) {
+            // The setters write to the buffers directly; make room for them
+            source.append("        ").append(field.bag()).append(".ensureCapacity(index + 1);\n");
+            source.append("        ").append(field.bag()).append(".buffer[index] = ").append(field.getZero()).append(";\n");
+        }
+        source.append("    }\n");
+
+        source.append("\n    @Override\n    protected void copy(").append(PACKED_COMPONENT).append(" source) {\n");
+        source.append("        ").append(simpleName).append(" that = (").append(simpleName).append(") source;\n");
+        for (PackedField field : fields.values()) {
+            source.append("        ").append(field.bag()).append(".ensureCapacity(index + 1);\n");
+            source.append("        ").append(field.bag()).append(".buffer[index] = that.")
+                    .append(field.name).append(".get(that.index);\n");
+        }
+        source.append("    }\n");
+        source.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source.toString());
+            }
+        } catch (IOException ex) {
+            error("Failed to generate " + qualifiedName + ": " + ex, type);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a {@code Wirer} for each class declaring fields to be wired, so
+ * that the engine does not need reflection to wire them. A wirer is named
+ * {@code <binary name of the class>$$Wirer}, and only handles the fields
+ * declared by that class; superclasses have their own wirers.
+ *
+ * <p>
+ * No wirer is generated for a class if any of its wired fields is private,
+ * or is not of a type handled by the default wire resolvers ({@code Engine},
+ * systems and mappers). The engine wires the fields of such classes using
+ * reflection, as before.
+ */
+@SupportedAnnotationTypes("*")
+public final class WirerProcessor extends AbstractProcessor {
+    private static final String PACKAGE = "com.github.antag99.retinazer";
+    private static final String WIRE = PACKAGE + ".Wire";
+    private static final String SKIP_WIRE = PACKAGE + ".SkipWire";
+    private static final String ENGINE = PACKAGE + ".Engine";
+    private static final String ENTITY_SYSTEM = PACKAGE + ".EntitySystem";
+    private static final String MAPPER = PACKAGE + ".Mapper";
+    private static final String WIRER = PACKAGE + ".Wirer";
+    private static final String WIRER_SUFFIX = "$$Wirer";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (processingEnv.getElementUtils().getTypeElement(WIRER) == null) {
+            // retinazer is not on the class path
+            return false;
+        }
+
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            processType(type);
+        }
+
+        // Other processors may be interested in the same elements
+        return false;
+    }
+
+    private void processType(TypeElement type) {
+        if (type.getKind() == ElementKind.CLASS) {
+            List<VariableElement> fields = getWiredFields(type);
+            if (fields != null && !fields.isEmpty()) {
+                generateWirer(type, fields);
+            }
+        }
+
+        for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+            processType(member);
+        }
+    }
+
+    private static boolean hasAnnotation(Element element, String annotationType) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            TypeElement annotationElement = (TypeElement) annotation.getAnnotationType().asElement();
+            if (annotationElement.getQualifiedName().contentEquals(annotationType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given type, or a type enclosing it, is private;
+     * generated code cannot refer to such types.
+     */
+    private static boolean isPrivate(Element type) {
+        for (Element element = type; element.getKind() != ElementKind.PACKAGE; element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether fields declared by the given class are wired by
+     * default; {@code Wire} is inherited from superclasses.
+     */
+    private boolean isClassWired(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        boolean classWire = false;
+        if (superclass.getKind() == TypeKind.DECLARED) {
+            classWire = isClassWired((TypeElement) ((DeclaredType) superclass).asElement());
+        }
+        classWire |= hasAnnotation(type, WIRE);
+        classWire &= !hasAnnotation(type, SKIP_WIRE);
+        return classWire;
+    }
+
+    /**
+     * Gets the wired fields declared by the given class.
+     *
+     * @return the wired fields, or {@code null} if a wirer cannot be
+     *         generated for the class.
+     */
+    private List<VariableElement> getWiredFields(TypeElement type) {
+        if (isPrivate(type)) {
+            return null;
+        }
+
+        boolean classWire = isClassWired(type);
+        List<VariableElement> fields = new ArrayList<>();
+
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.FINAL))
+                continue;
+
+            boolean fieldWire = classWire;
+            fieldWire |= hasAnnotation(field, WIRE);
+            fieldWire &= !hasAnnotation(field, SKIP_WIRE);
+
+            if (!fieldWire)
+                continue;
+
+            if (modifiers.contains(Modifier.PRIVATE) || getValue(field) == null) {
+                return null;
+            }
+
+            fields.add(field);
+        }
+
+        return fields;
+    }
+
+    /**
+     * Gets the expression used for wiring the given field.
+     *
+     * @return the expression, or {@code null} if the field is not handled by
+     *         the default wire resolvers.
+     */
+    private String getValue(VariableElement field) {
+        TypeMirror type = field.asType();
+        if (type.getKind() != TypeKind.DECLARED)
+            return null;
+
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        String name = element.getQualifiedName().toString();
+        if (name.equals(ENGINE))
+            return "engine";
+
+        if (name.equals(MAPPER)) {
+            List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+            if (arguments.size() != 1 || arguments.get(0).getKind() != TypeKind.DECLARED)
+                return null;
+            DeclaredType componentType = (DeclaredType) arguments.get(0);
+            if (!componentType.getTypeArguments().isEmpty() || isPrivate(componentType.asElement()))
+                return null;
+            return "engine.getMapper(" + getErasure(componentType) + ".class)";
+        }
+
+        TypeElement entitySystem = processingEnv.getElementUtils().getTypeElement(ENTITY_SYSTEM);
+        if (processingEnv.getTypeUtils().isSubtype(
+                processingEnv.getTypeUtils().erasure(type), entitySystem.asType()) && !isPrivate(element))
+            return "engine.getSystem(" + getErasure(type) + ".class)";
+
+        return null;
+    }
+
+    private String getErasure(TypeMirror type) {
+        return ((TypeElement) processingEnv.getTypeUtils().asElement(type)).getQualifiedName().toString();
+    }
+
+    private void generateWirer(TypeElement type, List<VariableElement> fields) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = packageElement.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = (packageName.isEmpty() ? binaryName
+                : binaryName.substring(packageName.length() + 1)) + WIRER_SUFFIX;
+        String typeName = type.getQualifiedName().toString();
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty())
+            source.append("package ").append(packageName).append(";\n\n");
+        source.append("/** Generated by ").append(WirerProcessor.class.getName()).append(" */\n");
+        source.append("@SuppressWarnings({ \"rawtypes\", \"unchecked\" })\n");
+        source.append("public final class ").append(simpleName)
+                .append(" implements ").append(WIRER).append(" {\n");
+
+        source.append("    @Override\n");
+        source.append("    public void wire(").append(ENGINE).append(" engine, Object object) {\n");
+        source.append("        ").append(typeName).append(" o = (").append(typeName).append(") object;\n");
+        for (VariableElement field : fields)
+            source.append("        o.").append(field.getSimpleName()).append(" = ").append(getValue(field)).append(";\n");
+        source.append("    }\n\n");
+
+        source.append("    @Override\n");
+        source.append("    public void unwire(").append(ENGINE).append(" engine, Object object) {\n");
+        source.append("        ").append(typeName).append(" o = (").append(typeName).append(") object;\n");
+        for (VariableElement field : fields)
+            source.append("        o.").append(field.getSimpleName()).append(" = null;\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source.toString());
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Failed to generate " + qualifiedName + ": " + ex, type);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.github.antag99.retinazer.Engine;
+import com.github.antag99.retinazer.EngineConfig;
+import com.github.antag99.retinazer.Mapper;
+import com.github.antag99.retinazer.processor.PackedComponents.Names;
+import com.github.antag99.retinazer.processor.PackedComponents.Position;
+import com.github.antag99.retinazer.processor.PackedComponents.State;
+
+public class PackedComponentProcessorTest {
+
+    @Test
+    public void testGeneratedImplementation() throws Exception {
+        Class<?> implementation = Class.forName(Position.class.getName() + "$$Packed");
+        assertTrue(Position.class.isAssignableFrom(implementation));
+
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<Position> mPosition = engine.getMapper(Position.class);
+        assertSame(implementation, mPosition.createFlyweight().getClass());
+    }
+
+    @Test
+    public void testAccessors() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<Position> mPosition = engine.getMapper(Position.class);
+        Mapper<State> mState = engine.getMapper(State.class);
+
+        for (int i = 0; i < 100; i++) {
+            int entity = engine.createEntity();
+            Position position = mPosition.create(entity);
+            position.setX(i);
+            position.setY(-i);
+            State state = mState.create(entity);
+            state.setActive(i % 2 == 0);
+            state.setTicks(i * 1000000000L);
+        }
+        engine.update();
+
+        Position position = mPosition.createFlyweight();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, mPosition.get(i).getX(), 0f);
+            assertEquals(-i, mPosition.get(i).getY(), 0f);
+            assertEquals(i, position.getX(i), 0f);
+            assertEquals(i % 2 == 0, mState.get(i).isActive());
+            assertEquals(i % 2 == 0, mState.get(0).isActive(i));
+            assertEquals(i * 1000000000L, mState.get(i).getTicks());
+            position.setX(i, i * 2);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i * 2, mPosition.get(i).getX(), 0f);
+        }
+
+        mState.get(5).setFlags((byte) 7);
+        assertEquals(7, mState.get(5).flags());
+        mState.get(0).setTicks(5, 42L);
+        assertEquals(42L, mState.get(5).getTicks());
+    }
+
+    @Test
+    public void testResetAndAdd() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<State> mState = engine.getMapper(State.class);
+
+        int entity = engine.createEntity();
+        State state = mState.create(entity);
+        state.setActive(true);
+        state.setTicks(10L);
+        engine.update();
+        mState.remove(entity);
+        engine.update();
+
+        // Reusing the index resets the data
+        state = mState.create(entity);
+        assertFalse(state.isActive());
+        assertEquals(0L, state.getTicks());
+        state.setActive(true);
+        state.setTicks(20L);
+
+        Engine other = new Engine(new EngineConfig());
+        Mapper<State> mOtherState = other.getMapper(State.class);
+        int otherEntity = other.createEntity();
+        mOtherState.add(otherEntity, mState.get(entity));
+        assertTrue(mOtherState.get(otherEntity).isActive());
+        assertEquals(20L, mOtherState.get(otherEntity).getTicks());
+    }
+
+    @Test
+    public void testFieldNames() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<Names> mNames = engine.getMapper(Names.class);
+        for (int i = 0; i < 10; i++) {
+            Names names = mNames.create(engine.createEntity());
+            names.setValue(i * 0.5f);
+            names.setEntity(i * 2);
+            names.setThat(i * 3L);
+            names.setSource((short) (i * 4));
+        }
+        engine.update();
+
+        Names names = mNames.createFlyweight();
+        names.setValue(7, 1.5f);
+        names.setEntity(8, 100);
+        for (int i = 0; i < 10; i++) {
+            Names component = mNames.get(i);
+            assertEquals(i == 7 ? 1.5f : i * 0.5f, component.getValue(), 0f);
+            assertEquals(i == 8 ? 100 : i * 2, names.getEntity(i));
+            assertEquals(i * 3L, component.getThat());
+            assertEquals(i * 4, component.getSource());
+        }
+
+        int other = engine.createEntity();
+        mNames.add(other, mNames.get(3));
+        assertEquals(1.5f, mNames.get(other).getValue(), 0f);
+        assertEquals(6, mNames.get(other).getEntity());
+        assertEquals(9L, mNames.get(other).getThat());
+        assertEquals(12, mNames.get(other).getSource());
+    }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.processor;
+
+import com.github.antag99.retinazer.PackedComponent;
+
+public final class PackedComponents {
+    private PackedComponents() {
+    }
+
+    public static abstract class Position extends PackedComponent {
+        public abstract float getX();
+
+        public abstract void setX(float value);
+
+        public abstract float getX(int entity);
+
+        public abstract void setX(int entity, float value);
+
+        public abstract float getY();
+
+        public abstract void setY(float value);
+    }
+
+    public static abstract class State extends PackedComponent {
+        public abstract boolean isActive();
+
+        public abstract void setActive(boolean value);
+
+        public abstract boolean isActive(int entity);
+
+        public abstract long getTicks();
+
+        public abstract void setTicks(long value);
+
+        public abstract void setTicks(int entity, long value);
+
+        protected abstract byte getFlags();
+
+        protected abstract void setFlags(byte value);
+
+        public byte flags() {
+            return getFlags();
+        }
+    }
+
+    /** Field names that match the names used in the generated code */
+    public static abstract class Names extends PackedComponent {
+        public abstract float getValue();
+
+        public abstract void setValue(float value);
+
+        public abstract void setValue(int entity, float value);
+
+        public abstract int getEntity();
+
+        public abstract void setEntity(int entity);
+
+        public abstract int getEntity(int entity);
+
+        public abstract void setEntity(int entity, int value);
+
+        public abstract long getThat();
+
+        public abstract void setThat(long value);
+
+        public abstract short getSource();
+
+        public abstract void setSource(short value);
+    }
+}
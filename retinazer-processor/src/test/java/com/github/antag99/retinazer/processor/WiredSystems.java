@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.processor;
+
+import com.github.antag99.retinazer.Component;
+import com.github.antag99.retinazer.Engine;
+import com.github.antag99.retinazer.EntitySystem;
+import com.github.antag99.retinazer.Mapper;
+import com.github.antag99.retinazer.SkipWire;
+import com.github.antag99.retinazer.Wire;
+
+public final class WiredSystems {
+    public static final class WiredComponent implements Component {
+    }
+
+    public static final class OtherSystem extends EntitySystem {
+    }
+
+    public static class WiredSystem extends EntitySystem {
+        Engine wiredEngine;
+        Mapper<WiredComponent> wiredMapper;
+        OtherSystem otherSystem;
+        @SkipWire
+        Object notWired;
+        static Object staticField;
+    }
+
+    public static final class SubclassSystem extends WiredSystem {
+        protected Mapper<WiredComponent> subclassMapper;
+    }
+
+    public static final class PrivateFieldSystem extends EntitySystem {
+        private Mapper<WiredComponent> privateMapper;
+
+        public Mapper<WiredComponent> getPrivateMapper() {
+            return privateMapper;
+        }
+    }
+
+    @Wire
+    public static final class WiredObject {
+        public Engine engine;
+        public Mapper<WiredComponent> mapper;
+    }
+
+    private WiredSystems() {
+    }
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.github.antag99.retinazer.Engine;
+import com.github.antag99.retinazer.EngineConfig;
+import com.github.antag99.retinazer.Wirer;
+import com.github.antag99.retinazer.processor.WiredSystems.OtherSystem;
+import com.github.antag99.retinazer.processor.WiredSystems.PrivateFieldSystem;
+import com.github.antag99.retinazer.processor.WiredSystems.SubclassSystem;
+import com.github.antag99.retinazer.processor.WiredSystems.WiredComponent;
+import com.github.antag99.retinazer.processor.WiredSystems.WiredObject;
+import com.github.antag99.retinazer.processor.WiredSystems.WiredSystem;
+
+public class WirerProcessorTest {
+
+    private static Class<?> getWirer(Class<?> type) {
+        try {
+            return Class.forName(type.getName() + "$$Wirer");
+        } catch (ClassNotFoundException ex) {
+            return null;
+        }
+    }
+
+    @Test
+    public void testGeneratedWirers() {
+        assertTrue(Wirer.class.isAssignableFrom(getWirer(WiredSystem.class)));
+        assertTrue(Wirer.class.isAssignableFrom(getWirer(SubclassSystem.class)));
+        assertTrue(Wirer.class.isAssignableFrom(getWirer(WiredObject.class)));
+        // Private fields are wired reflectively
+        assertNull(getWirer(PrivateFieldSystem.class));
+        // Nothing to wire
+        assertNull(getWirer(OtherSystem.class));
+    }
+
+    @Test
+    public void testWire() {
+        WiredSystem wiredSystem = new WiredSystem();
+        SubclassSystem subclassSystem = new SubclassSystem();
+        OtherSystem otherSystem = new OtherSystem();
+        PrivateFieldSystem privateFieldSystem = new PrivateFieldSystem();
+        Engine engine = new Engine(new EngineConfig()
+                .addSystem(wiredSystem)
+                .addSystem(subclassSystem)
+                .addSystem(otherSystem)
+                .addSystem(privateFieldSystem));
+
+        assertSame(engine, wiredSystem.wiredEngine);
+        assertSame(engine.getMapper(WiredComponent.class), wiredSystem.wiredMapper);
+        assertSame(otherSystem, wiredSystem.otherSystem);
+        assertNull(wiredSystem.notWired);
+
+        assertSame(engine, subclassSystem.wiredEngine);
+        assertSame(engine.getMapper(WiredComponent.class), subclassSystem.subclassMapper);
+        assertSame(engine.getMapper(WiredComponent.class), privateFieldSystem.getPrivateMapper());
+
+        WiredObject object = new WiredObject();
+        engine.wire(object);
+        assertSame(engine, object.engine);
+        assertSame(engine.getMapper(WiredComponent.class), object.mapper);
+
+        engine.unwire(object);
+        assertNull(object.engine);
+        assertNull(object.mapper);
+        assertEquals(null, WiredSystem.staticField);
+    }
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Declares the component types that an {@link EntitySystem} accesses; this is
+ * an alternative to the {@link Reads} and {@link Writes} annotations, and is
+ * passed to {@link EngineConfig#addSystem(EntitySystem, Priority, AccessConfig)}.
+ *
+ * <p>
+ * Systems that declare their access may be updated concurrently with other
+ * such systems of the same {@link Priority}, as long as neither writes a
+ * component type that the other one accesses. Pending changes are only
+ * flushed once all systems updating concurrently have completed, and such
+ * systems must not create or destroy entities, nor add or remove components,
+ * other than through a {@link CommandBuffer}.
+ *
+ * <p>
+ * Systems are never updated before systems registered earlier, unless they
+ * are declared {@link #unordered()}.
+ */
+public final class AccessConfig {
+    Set<Class<? extends Component>> reads = new HashSet<>();
+    Set<Class<? extends Component>> writes = new HashSet<>();
+    boolean unordered = false;
+
+    public AccessConfig() {
+    }
+
+    @SafeVarargs
+    public final AccessConfig reads(Class<? extends Component>... componentTypes) {
+        for (Class<? extends Component> componentType : componentTypes)
+            reads.add(componentType);
+        return this;
+    }
+
+    @SafeVarargs
+    public final AccessConfig writes(Class<? extends Component>... componentTypes) {
+        for (Class<? extends Component> componentType : componentTypes)
+            writes.add(componentType);
+        return this;
+    }
+
+    /**
+     * Allows the system to be updated before or concurrently with systems of
+     * the same priority that were registered earlier, as long as their
+     * access does not conflict. By default, systems are only updated
+     * concurrently with the systems registered just before them.
+     *
+     * @return {@code this} for chaining.
+     */
+    public AccessConfig unordered() {
+        unordered = true;
+        return this;
+    }
+
+    /**
+     * Checks whether a system with this access can run concurrently with a
+     * system with the other access.
+     */
+    boolean conflicts(AccessConfig other) {
+        for (Class<? extends Component> componentType : writes)
+            if (other.reads.contains(componentType) || other.writes.contains(componentType))
+                return true;
+        for (Class<? extends Component> componentType : other.writes)
+            if (reads.contains(componentType))
+                return true;
+        return false;
+    }
+
+    /**
+     * Gets the access declared by the annotations of the given system type,
+     * or {@code null} if it does not declare any.
+     */
+    static AccessConfig fromAnnotations(Class<? extends EntitySystem> systemType) {
+        Reads reads = systemType.getAnnotation(Reads.class);
+        Writes writes = systemType.getAnnotation(Writes.class);
+        if (reads == null && writes == null)
+            return null;
+        AccessConfig access = new AccessConfig();
+        if (reads != null)
+            access.reads(reads.value());
+        if (writes != null)
+            access.writes(writes.value());
+        return access;
+    }
+}
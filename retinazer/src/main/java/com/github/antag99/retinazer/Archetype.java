@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import java.lang.reflect.Array;
+
+import com.github.antag99.retinazer.util.Experimental;
+import com.github.antag99.retinazer.util.Mask;
+
+/**
+ * Group of entities that have exactly the same component types. The entities
+ * of an archetype are stored in fixed-size chunks of {@link #CHUNK_SIZE}
+ * indices, which are filled in order; all chunks but the last one are full.
+ * Each chunk also stores the components of its entities, in one array per
+ * component type, so that a loop over a chunk reads them linearly. Packed
+ * component types are the exception, as their data already lives in
+ * primitive storage indexed by entity; access them through a flyweight
+ * moved to the entities of the chunk. Archetypes are only maintained if
+ * enabled using {@link EngineConfig#setArchetypes(boolean)}, and are
+ * retrieved using {@link Family#getArchetypes()}.
+ *
+ * <p>
+ * Like entity sets, archetypes are updated when the engine flushes changes,
+ * and must not be modified. The order of the entities is unspecified.
+ */
+@Experimental
+public final class Archetype {
+    static final int CHUNK_SHIFT = 10;
+
+    /** Amount of entities in a full chunk */
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** Indices of the component types of this archetype */
+    final Mask components;
+    /** Unique index of this archetype */
+    final int index;
+    /** Entities of this archetype */
+    int[][] chunks = new int[0][];
+    /** Amount of entities of this archetype */
+    int size = 0;
+
+    /** Mappers of the component types stored in the chunks */
+    final Mapper<?>[] mappers;
+    /** Column of each component type index; {@code -1} if not stored */
+    final int[] columns;
+    /** Components of this archetype, by column and chunk */
+    Component[][][] componentChunks;
+
+    Archetype(Mask components, int index, Mapper<?>[] allMappers) {
+        this.components = components;
+        this.index = index;
+
+        int count = 0;
+        for (int i = components.nextSetBit(0); i != -1; i = components.nextSetBit(i + 1)) {
+            if (allMappers[i].packed == null) {
+                count++;
+            }
+        }
+        this.mappers = new Mapper<?>[count];
+        this.columns = new int[allMappers.length];
+        for (int i = 0, column = 0; i < allMappers.length; i++) {
+            if (components.get(i) && allMappers[i].packed == null) {
+                mappers[column] = allMappers[i];
+                columns[i] = column++;
+            } else {
+                columns[i] = -1;
+            }
+        }
+        this.componentChunks = new Component[count][0][];
+    }
+
+    /**
+     * Checks whether entities of this archetype have components of the type
+     * of the given mapper.
+     *
+     * @param mapper
+     *            mapper of the component type.
+     * @return whether the entities have the component type.
+     */
+    public boolean has(Mapper<?> mapper) {
+        return components.get(mapper.typeIndex);
+    }
+
+    /**
+     * Gets the amount of entities of this archetype.
+     *
+     * @return the amount of entities.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the amount of non-empty chunks of this archetype.
+     *
+     * @return the amount of chunks.
+     */
+    public int getChunkCount() {
+        return (size + CHUNK_MASK) >>> CHUNK_SHIFT;
+    }
+
+    /**
+     * Gets the entities of a chunk. Only the first
+     * {@link #getChunkSize(int)} elements are valid. Do <b>not</b> modify this.
+     *
+     * @param chunk
+     *            the index of the chunk.
+     * @return the entities of the chunk.
+     */
+    public int[] getChunk(int chunk) {
+        return chunks[chunk];
+    }
+
+    /**
+     * Gets the components of the given type in a chunk; the component at a
+     * position belongs to the entity at the same position of
+     * {@link #getChunk(int)}. Only the first {@link #getChunkSize(int)}
+     * elements are valid. Do <b>not</b> modify this.
+     *
+     * @param mapper
+     *            mapper of the component type.
+     * @param chunk
+     *            the index of the chunk.
+     * @return the components of the chunk.
+     * @throws IllegalArgumentException
+     *             if entities of this archetype do not have the component
+     *             type, or the component type is packed.
+     */
+    public <T extends Component> T[] getComponents(Mapper<T> mapper, int chunk) {
+        int column = mapper.typeIndex < columns.length ? columns[mapper.typeIndex] : -1;
+        if (column == -1) {
+            throw new IllegalArgumentException("Components of type " + mapper.type.getName()
+                    + " are not stored in this archetype");
+        }
+        @SuppressWarnings("unchecked")
+        T[] components = (T[]) componentChunks[column][chunk];
+        return components;
+    }
+
+    /**
+     * Gets the amount of entities in a chunk.
+     *
+     * @param chunk
+     *            the index of the chunk.
+     * @return the amount of entities in the chunk.
+     */
+    public int getChunkSize(int chunk) {
+        return Math.min(size - (chunk << CHUNK_SHIFT), CHUNK_SIZE);
+    }
+
+    /**
+     * Adds an entity, and returns its position. The components of the entity
+     * are retrieved from the mappers.
+     */
+    int add(int entity) {
+        int position = size++;
+        int chunk = position >>> CHUNK_SHIFT;
+        int slot = position & CHUNK_MASK;
+        if (chunk == chunks.length) {
+            int newLength = Math.max(1, chunks.length * 2);
+            int[][] newChunks = new int[newLength][];
+            System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+            chunks = newChunks;
+            for (int i = 0, n = mappers.length; i < n; i++) {
+                Component[][] newComponentChunks = new Component[newLength][];
+                System.arraycopy(componentChunks[i], 0, newComponentChunks, 0, chunk);
+                componentChunks[i] = newComponentChunks;
+            }
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new int[CHUNK_SIZE];
+            for (int i = 0, n = mappers.length; i < n; i++) {
+                // Typed arrays, so that getComponents() can return T[]
+                componentChunks[i][chunk] = (Component[]) Array.newInstance(mappers[i].type, CHUNK_SIZE);
+            }
+        }
+        chunks[chunk][slot] = entity;
+        for (int i = 0, n = mappers.length; i < n; i++) {
+            componentChunks[i][chunk][slot] = mappers[i].get(entity);
+        }
+        return position;
+    }
+
+    /**
+     * Removes the entity at the given position, moving the last entity into
+     * its place.
+     *
+     * @return the moved entity, or {@code -1} if no entity was moved.
+     */
+    int remove(int position) {
+        int last = --size;
+        int lastChunk = last >>> CHUNK_SHIFT;
+        int lastSlot = last & CHUNK_MASK;
+        int chunk = position >>> CHUNK_SHIFT;
+        int slot = position & CHUNK_MASK;
+        for (int i = 0, n = mappers.length; i < n; i++) {
+            Component[][] columnChunks = componentChunks[i];
+            columnChunks[chunk][slot] = columnChunks[lastChunk][lastSlot];
+            // Do not keep removed components reachable
+            columnChunks[lastChunk][lastSlot] = null;
+        }
+        if (position == last) {
+            return -1;
+        }
+        int entity = chunks[lastChunk][lastSlot];
+        chunks[chunk][slot] = entity;
+        return entity;
+    }
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.antag99.retinazer.util.Bag;
+import com.github.antag99.retinazer.util.IntBag;
+import com.github.antag99.retinazer.util.Mask;
+
+final class ArchetypeManager {
+    private Engine engine;
+
+    /** Whether archetypes are maintained */
+    final boolean enabled;
+
+    private Map<Mask, Archetype> archetypesByComponents = new HashMap<>();
+    private Bag<Archetype> archetypes = new Bag<>();
+    private int archetypeCount = 0;
+
+    /** Archetype index of each entity, plus one; zero if none */
+    private IntBag entityArchetypes = new IntBag();
+    /** Position of each entity within its archetype */
+    private IntBag entityPositions = new IntBag();
+
+    /** Component types of the entity being updated */
+    private Mask lookup = new Mask();
+    /** Words of the current component masks, for each mapper */
+    private long[] componentWords = new long[0];
+
+    ArchetypeManager(Engine engine, EngineConfig config) {
+        this.engine = engine;
+        this.enabled = config.archetypes;
+    }
+
+    /**
+     * Adds the matching archetypes to a new family.
+     */
+    void addFamily(Family family) {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < archetypeCount; i++) {
+            Archetype archetype = archetypes.get(i);
+            if (matches(family, archetype)) {
+                family.addArchetype(archetype);
+            }
+        }
+    }
+
+    private static boolean matches(Family family, Archetype archetype) {
+        for (int component : family.components) {
+            if (!archetype.components.get(component)) {
+                return false;
+            }
+        }
+        for (int excludedComponent : family.excludedComponents) {
+            if (archetype.components.get(excludedComponent)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Archetype getArchetype(Mask components) {
+        Archetype archetype = archetypesByComponents.get(components);
+        if (archetype == null) {
+            archetype = new Archetype(new Mask().set(components), archetypeCount,
+                    engine.componentManager.array);
+            archetypesByComponents.put(archetype.components, archetype);
+            archetypes.set(archetypeCount++, archetype);
+            FamilyManager familyManager = engine.familyManager;
+            for (int i = 0, n = familyManager.getFamilyCount(); i < n; i++) {
+                Family family = familyManager.getFamily(i);
+                if (matches(family, archetype)) {
+                    family.addArchetype(archetype);
+                }
+            }
+        }
+        return archetype;
+    }
+
+    /**
+     * Moves all entities that changed since the last flush to the archetype
+     * matching their components. Must be called before component removals
+     * are applied.
+     */
+    void updateArchetypes() {
+        if (!enabled) {
+            return;
+        }
+
+        Mapper<?>[] mappers = engine.componentManager.array;
+        Mask entities = engine.entityManager.entities;
+        Mask remove = engine.entityManager.remove;
+        Mask change = engine.entityManager.change;
+
+        if (componentWords.length < mappers.length) {
+            componentWords = new long[mappers.length];
+        }
+        long[] componentWords = this.componentWords;
+
+        for (int w = change.getDirtyFrom(), n = change.getDirtyTo(); w < n; w++) {
+            long changeWord = change.getWord(w);
+            if (changeWord == 0L) {
+                continue;
+            }
+
+            long alive = entities.getWord(w) & ~remove.getWord(w);
+            for (int i = 0, m = mappers.length; i < m; i++) {
+                Mapper<?> mapper = mappers[i];
+                componentWords[i] = mapper.componentsMask.getWord(w) & ~mapper.removeMask.getWord(w);
+            }
+
+            for (long word = changeWord; word != 0L; word &= word - 1L) {
+                int bit = Long.numberOfTrailingZeros(word);
+                int entity = (w << 6) + bit;
+
+                Archetype target = null;
+                if ((alive & (1L << bit)) != 0L) {
+                    lookup.clear();
+                    for (int i = 0, m = mappers.length; i < m; i++) {
+                        if ((componentWords[i] & (1L << bit)) != 0L) {
+                            lookup.set(i);
+                        }
+                    }
+                    target = getArchetype(lookup);
+                }
+
+                int current = entityArchetypes.get(entity) - 1;
+                if (target != null && target.index == current) {
+                    continue;
+                }
+
+                if (current != -1) {
+                    Archetype archetype = archetypes.get(current);
+                    int position = entityPositions.get(entity);
+                    int moved = archetype.remove(position);
+                    if (moved != -1) {
+                        entityPositions.set(moved, position);
+                    }
+                }
+
+                if (target != null) {
+                    entityPositions.set(entity, target.add(entity));
+                    entityArchetypes.set(entity, target.index + 1);
+                } else {
+                    entityArchetypes.set(entity, 0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import java.util.Arrays;
+
+import com.github.antag99.retinazer.util.Bag;
+import com.github.antag99.retinazer.util.IntBag;
+
+/**
+ * Records entity and component operations for later playback. This makes it
+ * possible to create/destroy entities and add/remove components from systems
+ * that are updated concurrently, or that process entities in parallel.
+ *
+ * <p>
+ * Buffers are obtained by calling {@link Engine#getCommandBuffer()}. Each
+ * task run by the engine, i.e. the update or initialization of a system and
+ * each chunk processed by a {@link ParallelEntityProcessorSystem}, records to
+ * its own buffer, without any synchronization. Outside of such tasks, a
+ * single synchronized buffer is shared by all threads.
+ *
+ * <p>
+ * Recorded operations are played back at the start of the next flush of the
+ * engine, on the thread calling {@link Engine#update()}. The shared buffer is
+ * played back first, followed by the buffers of tasks, ordered by the index
+ * of the system and then by the first entity of the chunk; the operations
+ * recorded by a system outside of its chunks precede those of the chunks.
+ * Playback is thus deterministic, regardless of which threads run the tasks.
+ * The operations of each buffer are played back in the order they were
+ * recorded.
+ *
+ * <p>
+ * Entities created by a buffer are not assigned an index until playback;
+ * {@link #createEntity()} instead returns a negative placeholder, which can be
+ * passed to the other operations of the <i>same</i> buffer.
+ */
+public final class CommandBuffer {
+    private static final int CREATE_ENTITY = 0;
+    private static final int DESTROY_ENTITY = 1;
+    private static final int ADD_COMPONENT = 2;
+    private static final int REMOVE_COMPONENT = 3;
+    private static final int CREATE_COMPONENT = 4;
+
+    final Engine engine;
+    /** Whether this buffer is shared between threads, and thus synchronized */
+    private final boolean shared;
+    /** Playback order of this buffer, see {@link Engine#taskKey(int, int)} */
+    long key;
+
+    /** Recorded operations */
+    private IntBag operations = new IntBag();
+    /** Entity (or placeholder) of each operation */
+    private IntBag entities = new IntBag();
+    /** Mapper of each component operation */
+    private Bag<Mapper<?>> mappers = new Bag<>();
+    /** Component of each add operation */
+    private Bag<Component> components = new Bag<>();
+    /** Number of recorded operations */
+    private int size = 0;
+
+    /** Number of entities created by this buffer */
+    private int createdCount = 0;
+    /** Indices assigned to created entities during playback */
+    private IntBag created = new IntBag();
+
+    /**
+     * Flyweights of packed component types used by the task owning this
+     * buffer, by type index; see {@link Mapper#get(int)}
+     */
+    private Bag<PackedComponent> flyweights = new Bag<>();
+
+    CommandBuffer(Engine engine, boolean shared) {
+        this.engine = engine;
+        this.shared = shared;
+    }
+
+    private void record(int operation, int entity, Mapper<?> mapper, Component component) {
+        if (shared) {
+            synchronized (this) {
+                doRecord(operation, entity, mapper, component);
+            }
+        } else {
+            doRecord(operation, entity, mapper, component);
+        }
+    }
+
+    private void doRecord(int operation, int entity, Mapper<?> mapper, Component component) {
+        operations.set(size, operation);
+        entities.set(size, entity);
+        mappers.set(size, mapper);
+        components.set(size, component);
+        size++;
+    }
+
+    /**
+     * Records the creation of an entity.
+     *
+     * @return placeholder for the entity; only valid for this buffer.
+     */
+    public int createEntity() {
+        if (shared) {
+            synchronized (this) {
+                int placeholder = -1 - createdCount++;
+                doRecord(CREATE_ENTITY, placeholder, null, null);
+                return placeholder;
+            }
+        }
+        int placeholder = -1 - createdCount++;
+        doRecord(CREATE_ENTITY, placeholder, null, null);
+        return placeholder;
+    }
+
+    /**
+     * Records the destruction of an entity.
+     *
+     * @param entity
+     *            the entity, or a placeholder of this buffer.
+     */
+    public void destroyEntity(int entity) {
+        record(DESTROY_ENTITY, entity, null, null);
+    }
+
+    /**
+     * Records the addition of a component.
+     *
+     * @param mapper
+     *            mapper of the component type.
+     * @param entity
+     *            the entity, or a placeholder of this buffer.
+     * @param instance
+     *            the component instance.
+     * @see Mapper#add(int, Component)
+     */
+    public <T extends Component> void add(Mapper<T> mapper, int entity, T instance) {
+        if (instance == null) {
+            throw new NullPointerException("instance cannot be null");
+        }
+        record(ADD_COMPONENT, entity, mapper, instance);
+    }
+
+    /**
+     * Creates a component and records its addition. The component is created
+     * immediately and can be initialized before playback; it is never taken
+     * from the pool of the mapper, as the pool is not thread-safe. Packed
+     * and tag components are created during playback; {@code null} is
+     * returned for packed components, and the shared instance for tags.
+     *
+     * @param mapper
+     *            mapper of the component type.
+     * @param entity
+     *            the entity, or a placeholder of this buffer.
+     * @return the created component.
+     * @see Mapper#create(int)
+     */
+    public <T extends Component> T create(Mapper<T> mapper, int entity) {
+        if (mapper.flyweight != null) {
+            record(CREATE_COMPONENT, entity, mapper, null);
+            return mapper.packed != null ? null : mapper.flyweight;
+        }
+        T instance = mapper.newInstance();
+        record(ADD_COMPONENT, entity, mapper, instance);
+        return instance;
+    }
+
+    /**
+     * Records the removal of a component.
+     *
+     * @param mapper
+     *            mapper of the component type.
+     * @param entity
+     *            the entity, or a placeholder of this buffer.
+     * @see Mapper#remove(int)
+     */
+    public void remove(Mapper<?> mapper, int entity) {
+        record(REMOVE_COMPONENT, entity, mapper, null);
+    }
+
+    /**
+     * Gets the flyweight of the given packed component type for the task
+     * owning this buffer.
+     */
+    PackedComponent getFlyweight(Mapper<?> mapper) {
+        PackedComponent flyweight = flyweights.get(mapper.typeIndex);
+        if (flyweight == null) {
+            flyweights.set(mapper.typeIndex, flyweight = mapper.packed.duplicate());
+        }
+        return flyweight;
+    }
+
+    /**
+     * Checks whether this buffer has recorded any operations.
+     *
+     * @return whether this buffer is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Plays back and clears the recorded operations. The buffer is cleared
+     * even if an operation fails; the remaining operations are discarded.
+     */
+    void playback() {
+        if (shared) {
+            synchronized (this) {
+                doPlayback();
+            }
+        } else {
+            doPlayback();
+        }
+    }
+
+    private void doPlayback() {
+        try {
+            playbackOperations();
+        } finally {
+            clear();
+        }
+    }
+
+    /**
+     * Discards the recorded operations.
+     */
+    void clear() {
+        Arrays.fill(mappers.buffer, 0, size, null);
+        Arrays.fill(components.buffer, 0, size, null);
+        size = 0;
+        createdCount = 0;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void playbackOperations() {
+        int[] operations = this.operations.buffer;
+        int[] entities = this.entities.buffer;
+        Object[] mappers = this.mappers.buffer;
+        Object[] components = this.components.buffer;
+        int[] created = this.created.buffer;
+
+        for (int i = 0, n = size; i < n; i++) {
+            int entity = entities[i];
+            if (operations[i] == CREATE_ENTITY) {
+                this.created.set(-1 - entity, engine.createEntity());
+                created = this.created.buffer;
+                continue;
+            }
+
+            if (entity < 0) {
+                entity = created[-1 - entity];
+            }
+
+            switch (operations[i]) {
+            case DESTROY_ENTITY:
+                engine.destroyEntity(entity);
+                break;
+            case ADD_COMPONENT:
+                ((Mapper) mappers[i]).add(entity, (Component) components[i]);
+                break;
+            case REMOVE_COMPONENT:
+                ((Mapper<?>) mappers[i]).remove(entity);
+                break;
+            case CREATE_COMPONENT:
+                ((Mapper<?>) mappers[i]).create(entity);
+                break;
+            }
+        }
+    }
+}
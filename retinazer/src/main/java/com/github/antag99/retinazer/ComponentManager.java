@@ -37,14 +37,25 @@
  ******************************************************************************/
 package com.github.antag99.retinazer;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import com.github.antag99.retinazer.util.Bag;
 import com.github.antag99.retinazer.util.Mask;
 
 final class ComponentManager {
     private Engine engine;
+    private Map<Class<? extends Component>, Boolean> pooledComponents;
+    private Map<Class<? extends Component>, ComponentFactory<?>> componentFactories;
+    private Map<Class<? extends Component>, Boolean> sparseComponents;
+    private Map<Class<? extends Component>, Boolean> tagComponents;
 
     ComponentManager(Engine engine, EngineConfig config) {
         this.engine = engine;
+        this.pooledComponents = new HashMap<>(config.pooledComponents);
+        this.componentFactories = new HashMap<>(config.componentFactories);
+        this.sparseComponents = new HashMap<>(config.sparseComponents);
+        this.tagComponents = new HashMap<>(config.tagComponents);
     }
 
     /*
@@ -57,11 +68,14 @@ final class ComponentManager {
      *
      * Note that component types are typically only looked up when retrieving
      * Mapper instances and when adding components using Handle.
+     *
+     * Systems updated concurrently may look up new component types, so the
+     * map is rebuilt while holding the lock of this manager, and published by
+     * writing the table last; lookups that miss retry while holding the lock.
      */
-    int hashMask = 3;
-    Mapper<?>[] table = new Mapper<?>[4];
-    Mapper<?>[] stash = new Mapper<?>[0];
-    Mapper<?>[] array = new Mapper<?>[0];
+    volatile Mapper<?>[] table = new Mapper<?>[4];
+    volatile Mapper<?>[] stash = new Mapper<?>[0];
+    volatile Mapper<?>[] array = new Mapper<?>[0];
 
     static int nextPowerOfTwo(int value) {
         if (value == 0) {
@@ -79,7 +93,8 @@ final class ComponentManager {
     /**
      * Rebuilds the map use for looking up component types. This is required
      * every time a new component type is needed, which will hopefully not be
-     * during processing, but rather during initialization.
+     * during processing, but rather during initialization. Must be called
+     * while holding the lock of this manager.
      *
      * @param <T>
      *            generic component type.
@@ -87,18 +102,31 @@ final class ComponentManager {
      *            component type to add to the map.
      */
     private <T extends Component> void rebuild(Class<T> additionalType) {
+        Mapper<?>[] array = this.array;
+
         // Copy the array and add the new type
         Mapper<?>[] newArray = new Mapper<?>[array.length + 1];
         System.arraycopy(array, 0, newArray, 0, array.length);
-        newArray[array.length] = new Mapper<T>(engine, additionalType, array.length);
-        this.array = newArray;
+        Boolean pooled = pooledComponents.get(additionalType);
+        if (pooled == null)
+            pooled = additionalType.isAnnotationPresent(Pooled.class);
+        Boolean sparse = sparseComponents.get(additionalType);
+        if (sparse == null)
+            sparse = additionalType.isAnnotationPresent(Sparse.class);
+        Boolean tag = tagComponents.get(additionalType);
+        if (tag == null)
+            tag = additionalType.isAnnotationPresent(Tag.class);
+        @SuppressWarnings("unchecked")
+        ComponentFactory<? extends T> factory = (ComponentFactory<? extends T>) componentFactories.get(additionalType);
+        newArray[array.length] = new Mapper<T>(engine, additionalType, array.length, pooled, sparse, tag, factory);
+        array = newArray;
 
         // Create backing hash table filled to about 25%; this is done to
         // minimize hash code collisions.
         int capacity = nextPowerOfTwo(array.length) * 4;
 
-        hashMask = capacity - 1;
-        table = new Mapper[capacity];
+        int hashMask = capacity - 1;
+        Mapper<?>[] table = new Mapper[capacity];
 
         // Types that conflict and need to be put in the stash + respective slots
         Mask conflictingTypes = new Mask();
@@ -126,10 +154,14 @@ final class ComponentManager {
 
         // Put conflicting types in the stash
         int[] indices = conflictingTypes.getIndices();
-        stash = new Mapper[indices.length];
+        Mapper<?>[] stash = new Mapper[indices.length];
         for (int i = 0, n = indices.length; i < n; i++) {
             stash[i] = array[indices[i]];
         }
+
+        this.array = array;
+        this.stash = stash;
+        this.table = table;
     }
 
     int getIndex(Class<? extends Component> componentType) {
@@ -137,8 +169,9 @@ final class ComponentManager {
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    <T extends Component> Mapper<T> getMapper(Class<T> componentType) {
-        int slot = componentType.hashCode() & hashMask;
+    private <T extends Component> Mapper<T> findMapper(Class<T> componentType) {
+        Mapper<?>[] table = this.table;
+        int slot = componentType.hashCode() & (table.length - 1);
         Mapper storage = table[slot];
         if (storage != null) {
             if (storage.type == componentType) {
@@ -152,10 +185,24 @@ final class ComponentManager {
                 }
             }
         }
+        return null;
+    }
+
+    <T extends Component> Mapper<T> getMapper(Class<T> componentType) {
+        Mapper<T> mapper = findMapper(componentType);
+        if (mapper != null) {
+            return mapper;
+        }
 
         // Component type not found, add it to the map
-        rebuild(componentType);
-        return getMapper(componentType);
+        synchronized (this) {
+            mapper = findMapper(componentType);
+            if (mapper == null) {
+                rebuild(componentType);
+                mapper = findMapper(componentType);
+            }
+            return mapper;
+        }
     }
 
     void applyComponentChanges() {
@@ -164,8 +211,30 @@ final class ComponentManager {
             Mapper<Component> mapper = (Mapper<Component>) array[i];
             Bag<Component> components = mapper.components;
             Mask mask = mapper.removeMask;
-            for (int ii = mask.nextSetBit(0); ii != -1; ii = mask.nextSetBit(ii + 1)) {
-                components.set(ii, null);
+            if (mapper.flyweight != null) {
+                // Packed and tag components are not stored as objects
+            } else if (mapper.sparse != null) {
+                Mask componentsMask = mapper.componentsMask.getMask();
+                for (int ii = mask.nextSetBit(0); ii != -1; ii = mask.nextSetBit(ii + 1)) {
+                    if (componentsMask.get(ii)) {
+                        Component component = mapper.sparse.remove(ii);
+                        if (mapper.pooled) {
+                            mapper.free(component);
+                        }
+                    }
+                }
+            } else if (mapper.pooled) {
+                for (int ii = mask.nextSetBit(0); ii != -1; ii = mask.nextSetBit(ii + 1)) {
+                    Component component = components.get(ii);
+                    if (component != null) {
+                        mapper.free(component);
+                        components.set(ii, null);
+                    }
+                }
+            } else {
+                for (int ii = mask.nextSetBit(0); ii != -1; ii = mask.nextSetBit(ii + 1)) {
+                    components.set(ii, null);
+                }
             }
             mapper.componentsMask.andNot(mapper.removeMask);
         }
@@ -24,28 +24,30 @@ package com.github.antag99.retinazer;
 import java.lang.reflect.Field;
 
 public final class DefaultWireResolver implements WireResolver {
-    @Override
+    static boolean handles(Field field) {
+        Class<?> type = field.getType();
+        return type == Engine.class || EntitySystem.class.isAssignableFrom(type);
+    }
+
     @SuppressWarnings("unchecked")
-    public boolean wire(Engine engine, Object object, Field field) throws Throwable {
+    static Object getValue(Engine engine, Field field) {
         Class<?> type = field.getType();
-        if (type == Engine.class) {
-            field.set(object, engine);
-        } else if (EntitySystem.class.isAssignableFrom(type)) {
-            field.set(object, engine.getSystem((Class<? extends EntitySystem>) type));
-        } else {
+        return type == Engine.class ? engine : engine.getSystem((Class<? extends EntitySystem>) type);
+    }
+
+    @Override
+    public boolean wire(Engine engine, Object object, Field field) throws Throwable {
+        if (!handles(field))
             return false;
-        }
+        field.set(object, getValue(engine, field));
         return true;
     }
 
     @Override
     public boolean unwire(Engine engine, Object object, Field field) throws Throwable {
-        Class<?> type = field.getType();
-        if (type == Engine.class || EntitySystem.class.isAssignableFrom(type)) {
-            field.set(object, null);
-        } else {
+        if (!handles(field))
             return false;
-        }
+        field.set(object, null);
         return true;
     }
 }
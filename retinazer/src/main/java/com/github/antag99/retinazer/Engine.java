@@ -38,13 +38,21 @@
 package com.github.antag99.retinazer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import com.github.antag99.retinazer.EngineConfig.EntitySystemRegistration;
+import com.github.antag99.retinazer.util.Bag;
+import com.github.antag99.retinazer.util.IntBag;
+import com.github.antag99.retinazer.util.Mask;
 
 /**
  * Engine is the core class of retinazer; it manages all active entities,
@@ -53,13 +61,51 @@ import com.github.antag99.retinazer.EngineConfig.EntitySystemRegistration;
 public final class Engine {
 
     private final EntitySystem[] systems;
+    /** Systems grouped by stage; changes are flushed between stages */
+    private final EntitySystem[][] stages;
+    /** Tasks for updating the systems of each stage concurrently */
+    private final UpdateTask[][] stageTasks;
+    /** Whether changes are flushed after each stage, as determined by the flush policy */
+    private final boolean[] flushAfterStage;
     private final Map<Class<? extends EntitySystem>, EntitySystem> systemsByType;
 
     final EntityManager entityManager;
     final ComponentManager componentManager;
     final FamilyManager familyManager;
+    final ArchetypeManager archetypeManager;
     final WireManager wireManager;
 
+    /** Metrics recorded by this engine; {@code null} if not recording */
+    final EngineMetrics metrics;
+
+    /**
+     * Whether tasks may be running concurrently on the pool; only written by
+     * the thread submitting them, before they are submitted and after they
+     * have completed
+     */
+    boolean parallel = false;
+
+    /** Pool used for parallel processing; the shared pool if not configured */
+    private ForkJoinPool forkJoinPool;
+    /** Minimum amount of entities processed by a single parallel task */
+    final int minChunkSize;
+
+    /**
+     * Command buffer of the task running on the current thread; only set
+     * while a task is running, so that pool threads do not retain engines
+     */
+    private static final ThreadLocal<CommandBuffer> taskCommandBuffer = new ThreadLocal<>();
+    /** Command buffer used outside of tasks; shared between threads */
+    private final CommandBuffer sharedCommandBuffer = new CommandBuffer(this, true);
+    /** Command buffers available for reuse by tasks; guarded by itself */
+    private final Bag<CommandBuffer> freeCommandBuffers = new Bag<>();
+    /** Number of buffers in {@link #freeCommandBuffers} */
+    private int freeCommandBufferCount = 0;
+    /** Command buffers of completed tasks, awaiting playback; guarded by {@link #freeCommandBuffers} */
+    private final Bag<CommandBuffer> pendingCommandBuffers = new Bag<>();
+    /** Number of buffers in {@link #pendingCommandBuffers} */
+    private int pendingCommandBufferCount = 0;
+
     /** Tracks whether any components or entities have been modified; reset at every call to flush() */
     boolean dirty = false;
     /** Tracks whether this engine is within a call to update() */
@@ -77,8 +123,13 @@ public final class Engine {
         entityManager = new EntityManager(this, config);
         componentManager = new ComponentManager(this, config);
         familyManager = new FamilyManager(this, config);
+        archetypeManager = new ArchetypeManager(this, config);
         wireManager = new WireManager(this, config);
 
+        forkJoinPool = config.forkJoinPool;
+        minChunkSize = config.minChunkSize;
+        metrics = config.metrics;
+
         List<EntitySystemRegistration> systemRegistrations = new ArrayList<>(config.systems);
 
         Collections.sort(systemRegistrations, new Comparator<EntitySystemRegistration>() {
@@ -99,16 +150,124 @@ public final class Engine {
         this.systems = systems;
         this.systemsByType = Collections.unmodifiableMap(systemsByType);
 
+        if (metrics != null)
+            metrics.bind(systems);
+
+        Map<EntitySystem, Priority> priorities = new IdentityHashMap<>();
+        for (EntitySystemRegistration registration : systemRegistrations)
+            priorities.put(registration.system, registration.priority);
+
+        this.stages = SystemScheduler.schedule(systemRegistrations);
+        this.stageTasks = new UpdateTask[stages.length][];
+        for (int i = 0; i < stages.length; i++) {
+            stageTasks[i] = new UpdateTask[stages[i].length];
+            for (int ii = 0; ii < stages[i].length; ii++) {
+                int index = 0;
+                while (systems[index] != stages[i][ii])
+                    index++;
+                stageTasks[i][ii] = new UpdateTask(stages[i][ii], index);
+            }
+        }
+
+        // Stages never mix systems of different priorities
+        this.flushAfterStage = new boolean[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            boolean last = i == stages.length - 1;
+            switch (config.flushPolicy) {
+            case PER_SYSTEM:
+                flushAfterStage[i] = true;
+                break;
+            case PER_PRIORITY:
+                flushAfterStage[i] = last || priorities.get(stages[i][0]) != priorities.get(stages[i + 1][0]);
+                break;
+            case PER_FRAME:
+                flushAfterStage[i] = last;
+                break;
+            }
+            if (!last && flushAfterStage[i]) {
+                boolean skipFlush = true;
+                for (EntitySystem system : stages[i])
+                    skipFlush &= skipsFlush(config, system);
+                flushAfterStage[i] = !skipFlush;
+            }
+        }
+
+        for (int i = 0; i < systems.length; i++)
+            systems[i].index = i;
+
         for (EntitySystem system : systems)
             wire(system);
 
         for (EntitySystem system : systems)
             system.setup();
 
-        for (EntitySystem system : systems)
-            system.initialize();
+        EntitySystem[][] initializationStages = SystemScheduler.scheduleInitialization(systems, systemsByType);
+        for (EntitySystem[] stage : initializationStages) {
+            InitializeTask[] tasks = new InitializeTask[stage.length];
+            for (int i = 0; i < stage.length; i++)
+                tasks[i] = new InitializeTask(stage[i]);
+            if (stage.length == 1 || !config.parallelInitialization) {
+                for (InitializeTask task : tasks)
+                    task.run();
+            } else {
+                familyManager.updateIndices();
+                invokeParallel(new StageTask(tasks));
+            }
+        }
 
         flush();
+        // Changes made by initialize() are not part of any frame
+        clearChangeCounts();
+    }
+
+    @SuppressWarnings("serial")
+    private final class InitializeTask extends RecursiveAction {
+        private final EntitySystem system;
+
+        InitializeTask(EntitySystem system) {
+            this.system = system;
+        }
+
+        void run() {
+            CommandBuffer previous = beginTask(taskKey(system.index, -1));
+            try {
+                system.initialize();
+            } finally {
+                endTask(previous);
+            }
+        }
+
+        @Override
+        protected void compute() {
+            run();
+        }
+    }
+
+    private static boolean skipsFlush(EngineConfig config, EntitySystem system) {
+        Boolean skipFlush = config.skipFlushSystems.get(system.getClass());
+        if (skipFlush == null)
+            skipFlush = system.getClass().isAnnotationPresent(SkipFlush.class);
+        return skipFlush;
+    }
+
+    /** Pool shared by engines without a configured pool; created on first use */
+    private static final class DefaultForkJoinPool {
+        // Workers are daemon threads, so the pool never needs to be shut down
+        static final ForkJoinPool INSTANCE = new ForkJoinPool();
+    }
+
+    /**
+     * Gets the pool used for parallel processing. If no pool was configured,
+     * this is a pool shared by all such engines, which is created on the
+     * first call to this method.
+     *
+     * @return pool used for parallel processing.
+     */
+    public ForkJoinPool getForkJoinPool() {
+        if (forkJoinPool == null) {
+            forkJoinPool = DefaultForkJoinPool.INSTANCE;
+        }
+        return forkJoinPool;
     }
 
     public void wire(Object object) {
@@ -127,9 +286,44 @@ public final class Engine {
         getFamily(new FamilyConfig()).removeListener(entityListener);
     }
 
+    @SuppressWarnings("serial")
+    private final class UpdateTask extends RecursiveAction {
+        private final EntitySystem system;
+        /** Index of the system, used for recording metrics */
+        private final int index;
+
+        UpdateTask(EntitySystem system, int index) {
+            this.system = system;
+            this.index = index;
+        }
+
+        void run() {
+            CommandBuffer previous = beginTask(taskKey(index, -1));
+            try {
+                if (metrics == null) {
+                    system.update();
+                } else {
+                    long start = System.nanoTime();
+                    system.update();
+                    metrics.recordSystem(index, System.nanoTime() - start);
+                }
+            } finally {
+                endTask(previous);
+            }
+        }
+
+        @Override
+        protected void compute() {
+            run();
+        }
+    }
+
     /**
      * Updates all systems, interleaved by inserting/removing entities to/from
-     * entity sets.
+     * entity sets. Systems that declare non-conflicting component access (see
+     * {@link AccessConfig}) are updated concurrently, and changes are flushed
+     * once all of them have completed. Flushes may be deferred further by the
+     * configured {@link FlushPolicy}.
      */
     public void update() {
         if (update) {
@@ -138,15 +332,56 @@ public final class Engine {
 
         update = true;
 
-        flush();
-
-        for (EntitySystem system : systems) {
-            system.update();
+        try {
+            EngineMetrics metrics = this.metrics;
+            long start = 0L;
+            if (metrics != null) {
+                start = System.nanoTime();
+                metrics.beginFrame();
+            }
 
             flush();
+
+            for (int i = 0, n = stages.length; i < n; i++) {
+                EntitySystem[] stage = stages[i];
+                if (stage.length == 1) {
+                    stageTasks[i][0].run();
+                } else {
+                    familyManager.updateIndices();
+                    UpdateTask[] tasks = stageTasks[i];
+                    for (UpdateTask task : tasks)
+                        task.reinitialize();
+                    invokeParallel(new StageTask(tasks));
+                }
+
+                if (flushAfterStage[i])
+                    flush();
+            }
+
+            if (metrics != null) {
+                int added = 0;
+                for (Mapper<?> mapper : componentManager.array)
+                    added += mapper.addedCount;
+                metrics.endFrame(System.nanoTime() - start, entityManager.createdCount, added);
+                clearChangeCounts();
+            }
+        } finally {
+            update = false;
         }
+    }
 
-        update = false;
+    @SuppressWarnings("serial")
+    private static final class StageTask extends RecursiveAction {
+        private final RecursiveAction[] tasks;
+
+        StageTask(RecursiveAction[] tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
     }
 
     /**
@@ -161,34 +396,197 @@ public final class Engine {
 
         flush();
 
-        int[] buffer = getEntities().getIndices().buffer;
-        for (int i = 0, n = getEntities().size(); i < n; i++) {
-            destroyEntity(buffer[i]);
-        }
+        destroyEntities(getEntities());
 
         flush();
+        // Like the changes counted by the flushes above, creations since the
+        // last frame are discarded
+        clearChangeCounts();
 
         update = false;
     }
 
+    /**
+     * Resets the numbers of entities created and components added that are
+     * counted for metrics.
+     */
+    private void clearChangeCounts() {
+        entityManager.createdCount = 0;
+        for (Mapper<?> mapper : componentManager.array)
+            mapper.addedCount = 0;
+    }
+
+    /**
+     * Gets the command buffer of the task running on the current thread, or
+     * the shared buffer if the current thread is not running a task of this
+     * engine; operations recorded by it are played back at the start of the
+     * next flush.
+     *
+     * @return the command buffer of the current task.
+     * @see CommandBuffer
+     */
+    public CommandBuffer getCommandBuffer() {
+        CommandBuffer buffer = getTaskCommandBuffer();
+        return buffer != null ? buffer : sharedCommandBuffer;
+    }
+
+    /**
+     * Runs a task on the pool of this engine, which is marked as
+     * {@link #parallel} until the task completes.
+     */
+    void invokeParallel(ForkJoinTask<?> task) {
+        ForkJoinPool pool = getForkJoinPool();
+        boolean outermost = !parallel;
+        if (outermost)
+            parallel = true;
+        try {
+            // Systems may be updated concurrently by the same pool
+            if (ForkJoinTask.getPool() == pool) {
+                task.invoke();
+            } else {
+                pool.invoke(task);
+            }
+        } finally {
+            if (outermost)
+                parallel = false;
+        }
+    }
+
+    /**
+     * Gets the command buffer of the task of this engine running on the
+     * current thread, or {@code null} if there is none.
+     */
+    CommandBuffer getTaskCommandBuffer() {
+        CommandBuffer buffer = taskCommandBuffer.get();
+        return buffer != null && buffer.engine == this ? buffer : null;
+    }
+
+    /**
+     * Gets the playback order of the buffer of a task.
+     *
+     * @param system
+     *            index of the system.
+     * @param chunk
+     *            first entity position of the processed chunk, or {@code -1}
+     *            for operations recorded by the system itself.
+     * @return key that buffers are played back in ascending order of.
+     */
+    static long taskKey(int system, int chunk) {
+        return ((long) (system + 1) << 32) | (chunk + 1L);
+    }
+
+    /**
+     * Assigns a command buffer to the task about to run on the current thread.
+     *
+     * @param key
+     *            playback order of the buffer, see {@link #taskKey(int, int)}.
+     * @return the buffer of the enclosing task, to be passed to {@link #endTask}.
+     */
+    CommandBuffer beginTask(long key) {
+        CommandBuffer buffer;
+        synchronized (freeCommandBuffers) {
+            buffer = freeCommandBufferCount != 0
+                    ? freeCommandBuffers.get(--freeCommandBufferCount)
+                    : new CommandBuffer(this, false);
+        }
+        buffer.key = key;
+        CommandBuffer previous = taskCommandBuffer.get();
+        taskCommandBuffer.set(buffer);
+        return previous;
+    }
+
+    /**
+     * Queues the buffer of the task that ran on the current thread for
+     * playback, and restores the buffer of the enclosing task.
+     */
+    void endTask(CommandBuffer previous) {
+        CommandBuffer buffer = taskCommandBuffer.get();
+        if (previous != null) {
+            taskCommandBuffer.set(previous);
+        } else {
+            taskCommandBuffer.remove();
+        }
+        synchronized (freeCommandBuffers) {
+            if (buffer.isEmpty()) {
+                freeCommandBuffers.set(freeCommandBufferCount++, buffer);
+            } else {
+                pendingCommandBuffers.set(pendingCommandBufferCount++, buffer);
+            }
+        }
+    }
+
+    /** Orders command buffers by their key */
+    private static final Comparator<Object> KEY_ORDER = new Comparator<Object>() {
+        @Override
+        public int compare(Object o1, Object o2) {
+            return Long.compare(((CommandBuffer) o1).key, ((CommandBuffer) o2).key);
+        }
+    };
+
+    private void playbackCommandBuffers() {
+        sharedCommandBuffer.playback();
+
+        // No tasks are running, as playback happens on the updating thread
+        Bag<CommandBuffer> pending = pendingCommandBuffers;
+        int count = pendingCommandBufferCount;
+        if (count == 0)
+            return;
+        Arrays.sort(pending.buffer, 0, count, KEY_ORDER);
+        try {
+            for (int i = 0; i < count; i++) {
+                pending.get(i).playback();
+            }
+        } finally {
+            synchronized (freeCommandBuffers) {
+                for (int i = 0; i < count; i++) {
+                    CommandBuffer buffer = pending.get(i);
+                    // Discards the operations of buffers not played back due to an exception
+                    buffer.clear();
+                    freeCommandBuffers.set(freeCommandBufferCount++, buffer);
+                    pending.set(i, null);
+                }
+                pendingCommandBufferCount = 0;
+            }
+        }
+    }
+
     private void flush() {
+        EngineMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0L;
+        int iterations = 0;
+
+        playbackCommandBuffers();
+
         while (dirty) {
             dirty = false;
+            iterations++;
 
+            // The masks below track their dirty words, so these operations
+            // only touch the words that actually changed since the last flush.
             entityManager.remove.set(entityManager.removeQueue);
             entityManager.removeQueue.clear();
 
+            entityManager.change.set(entityManager.changeQueue);
+            entityManager.changeQueue.clear();
+
             for (Mapper<?> mapper : componentManager.array) {
                 mapper.removeMask.set(mapper.removeQueueMask);
                 mapper.removeMask.or(entityManager.remove);
                 mapper.removeQueueMask.clear();
             }
 
+            if (metrics != null)
+                metrics.recordRemovals(this);
+
             familyManager.updateFamilyMembership();
+            archetypeManager.updateArchetypes();
             componentManager.applyComponentChanges();
 
-            entityManager.entities.andNot(entityManager.remove);
+            entityManager.removeEntities();
         }
+
+        if (metrics != null)
+            metrics.recordFlush(System.nanoTime() - start, iterations);
     }
 
     /**
@@ -203,6 +601,43 @@ public final class Engine {
         return entityManager.createEntity();
     }
 
+    /**
+     * Creates the given amount of entities; this is equivalent to calling
+     * {@link #createEntity()} repeatedly, but sets the entity masks word by
+     * word. Entities are assigned free indices first, followed by a
+     * contiguous range of indices that were never assigned.
+     *
+     * @param count
+     *            the amount of entities to create.
+     * @param out
+     *            bag to store the indices of the created entities in,
+     *            starting at index {@code 0}.
+     */
+    public void createEntities(int count, IntBag out) {
+        entityManager.createEntities(count, out);
+    }
+
+    /**
+     * Creates the given amount of entities, along with components of the
+     * given types. Components are created using {@link Mapper#create(int)},
+     * and can be retrieved using the indices stored in {@code out}.
+     *
+     * @param count
+     *            the amount of entities to create.
+     * @param out
+     *            bag to store the indices of the created entities in,
+     *            starting at index {@code 0}.
+     * @param componentTypes
+     *            the types of the components to create for each entity.
+     */
+    @SafeVarargs
+    public final void createEntities(int count, IntBag out, Class<? extends Component>... componentTypes) {
+        entityManager.createEntities(count, out);
+        for (Class<? extends Component> componentType : componentTypes) {
+            getMapper(componentType).createAll(out.buffer, count, entityManager.created);
+        }
+    }
+
     /**
      * Destroys the entity with the given index. This will not remove the entity
      * immediately; only after the current system processing,
@@ -214,6 +649,55 @@ public final class Engine {
         entityManager.destroyEntity(entity);
     }
 
+    /**
+     * Destroys all entities in the given mask. This is equivalent to calling
+     * {@link #destroyEntity(int)} for each entity, but operates word by word.
+     *
+     * @param entities
+     *            mask of the entities to destroy.
+     */
+    public void destroyEntities(Mask entities) {
+        entityManager.destroyEntities(entities);
+    }
+
+    /**
+     * Destroys all entities in the given entity set.
+     *
+     * @param entities
+     *            the entities to destroy.
+     * @see #destroyEntities(Mask)
+     */
+    public void destroyEntities(EntitySet entities) {
+        entityManager.destroyEntities(entities.getMask());
+    }
+
+    /**
+     * Gets a handle for the given entity. The handle refers to this entity
+     * only, even after its index has been reused by another entity.
+     *
+     * @param entity
+     *            the index of the entity.
+     * @return handle of the entity.
+     * @see EntityHandle
+     */
+    public long getHandle(int entity) {
+        return EntityHandle.of(entity, entityManager.generations.get(entity));
+    }
+
+    /**
+     * Checks whether the entity referred to by the given handle still exists.
+     * Destroyed entities exist until the next flush, like with entity sets.
+     *
+     * @param handle
+     *            handle of the entity.
+     * @return whether the entity exists.
+     */
+    public boolean isAlive(long handle) {
+        int entity = EntityHandle.getEntity(handle);
+        return entity >= 0 && entityManager.entities.get(entity)
+                && entityManager.generations.get(entity) == EntityHandle.getGeneration(handle);
+    }
+
     /**
      * Gets all entities added to this engine.
      *
@@ -22,8 +22,11 @@
 package com.github.antag99.retinazer;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Stores configuration for an {@link Engine} instance.
@@ -32,10 +35,12 @@ public final class EngineConfig {
     static final class EntitySystemRegistration {
         final EntitySystem system;
         final Priority priority;
+        final AccessConfig access;
 
-        EntitySystemRegistration(EntitySystem system, Priority priority) {
+        EntitySystemRegistration(EntitySystem system, Priority priority, AccessConfig access) {
             this.system = system;
             this.priority = priority;
+            this.access = access;
         }
     }
 
@@ -49,6 +54,18 @@ public final class EngineConfig {
 
     List<EntitySystemRegistration> systems = new ArrayList<>();
     List<WireResolver> wireResolvers = new ArrayList<>();
+    ForkJoinPool forkJoinPool = null;
+    int minChunkSize = 1024;
+    boolean preferLowestIndices = true;
+    boolean archetypes = false;
+    boolean parallelInitialization = false;
+    EngineMetrics metrics = null;
+    FlushPolicy flushPolicy = FlushPolicy.PER_SYSTEM;
+    Map<Class<? extends EntitySystem>, Boolean> skipFlushSystems = new HashMap<>();
+    Map<Class<? extends Component>, Boolean> pooledComponents = new HashMap<>();
+    Map<Class<? extends Component>, Boolean> sparseComponents = new HashMap<>();
+    Map<Class<? extends Component>, Boolean> tagComponents = new HashMap<>();
+    Map<Class<? extends Component>, ComponentFactory<?>> componentFactories = new HashMap<>();
 
     /**
      * Registers a system.
@@ -71,6 +88,24 @@ public final class EngineConfig {
      * @return {@code this} for chaining.
      */
     public EngineConfig addSystem(EntitySystem system, Priority priority) {
+        return addSystem(system, priority, null);
+    }
+
+    /**
+     * Registers a system, declaring the component types it accesses. This
+     * takes precedence over any {@link Reads} and {@link Writes} annotations
+     * of the system.
+     *
+     * @param system
+     *            system to register.
+     * @param priority
+     *            priority of the system.
+     * @param access
+     *            component access of the system, or {@code null} to use annotations.
+     * @return {@code this} for chaining.
+     * @see AccessConfig
+     */
+    public EngineConfig addSystem(EntitySystem system, Priority priority, AccessConfig access) {
         Objects.requireNonNull(system, "system cannot be null");
         Objects.requireNonNull(priority, "priority cannot be null");
         Class<? extends EntitySystem> systemType = system.getClass();
@@ -82,7 +117,7 @@ public final class EngineConfig {
             }
         }
 
-        systems.add(new EntitySystemRegistration(system, priority));
+        systems.add(new EntitySystemRegistration(system, priority, access));
         return this;
     }
 
@@ -98,4 +133,212 @@ public final class EngineConfig {
         wireResolvers.add(resolver);
         return this;
     }
+
+    /**
+     * Sets the factory used for creating components of the given type. By
+     * default, components are created using their zero-arg constructor.
+     *
+     * @param componentType
+     *            the component type.
+     * @param factory
+     *            factory for the component type, or {@code null} to use the
+     *            zero-arg constructor.
+     * @param <T>
+     *            generic type of the component.
+     * @return {@code this} for chaining.
+     */
+    public <T extends Component> EngineConfig setComponentFactory(Class<T> componentType,
+            ComponentFactory<? extends T> factory) {
+        Objects.requireNonNull(componentType, "componentType cannot be null");
+        if (factory == null) {
+            componentFactories.remove(componentType);
+        } else {
+            componentFactories.put(componentType, factory);
+        }
+        return this;
+    }
+
+    /**
+     * Sets whether components of the given type are pooled, overriding the
+     * {@link Pooled} annotation. Removed components of a pooled type are
+     * recycled by {@link Mapper#create(int)}, so references to them must
+     * not be retained.
+     *
+     * @param componentType
+     *            the component type.
+     * @param pooled
+     *            whether to pool components of the type.
+     * @return {@code this} for chaining.
+     */
+    public EngineConfig setPooled(Class<? extends Component> componentType, boolean pooled) {
+        Objects.requireNonNull(componentType, "componentType cannot be null");
+        pooledComponents.put(componentType, pooled);
+        return this;
+    }
+
+    /**
+     * Sets whether components of the given type are stored in a sparse set,
+     * overriding the {@link Sparse} annotation.
+     *
+     * @param componentType
+     *            the component type.
+     * @param sparse
+     *            whether to store components of the type in a sparse set.
+     * @return {@code this} for chaining.
+     */
+    public EngineConfig setSparse(Class<? extends Component> componentType, boolean sparse) {
+        Objects.requireNonNull(componentType, "componentType cannot be null");
+        sparseComponents.put(componentType, sparse);
+        return this;
+    }
+
+    /**
+     * Sets whether entities are grouped by archetype, the exact set of
+     * component types they have. This makes {@link Family#getArchetypes()}
+     * available, at the cost of additional work when components change.
+     * Defaults to {@code false}.
+     *
+     * @param archetypes
+     *            whether to group entities by archetype.
+     * @return {@code this} for chaining.
+     * @see Archetype
+     */
+    public EngineConfig setArchetypes(boolean archetypes) {
+        this.archetypes = archetypes;
+        return this;
+    }
+
+    /**
+     * Sets whether the given component type is a tag, overriding the
+     * {@link Tag} annotation.
+     *
+     * @param componentType
+     *            the component type.
+     * @param tag
+     *            whether the component type is a tag.
+     * @return {@code this} for chaining.
+     */
+    public EngineConfig setTag(Class<? extends Component> componentType, boolean tag) {
+        Objects.requireNonNull(componentType, "componentType cannot be null");
+        tagComponents.put(componentType, tag);
+        return this;
+    }
+
+    /**
+     * Sets whether the lowest free index is assigned to created entities, as
+     * opposed to the most recently freed one. Reusing the lowest indices keeps
+     * entities densely packed, at the cost of ordering the freed indices when
+     * entities are removed. Defaults to {@code true}.
+     *
+     * @param preferLowestIndices
+     *            whether to prefer the lowest free index.
+     * @return {@code this} for chaining.
+     */
+    public EngineConfig setPreferLowestIndices(boolean preferLowestIndices) {
+        this.preferLowestIndices = preferLowestIndices;
+        return this;
+    }
+
+    /**
+     * Sets whether systems are initialized concurrently using the pool of the
+     * engine. Systems are initialized once all systems they declare using
+     * {@link InitializeAfter} have been initialized. Defaults to
+     * {@code false}.
+     *
+     * <p>
+     * Systems are still wired and set up sequentially. Systems initialized
+     * concurrently may look up mappers using {@link Engine#getMapper}, which
+     * is thread-safe, but must not call {@link Engine#getFamily}, as families
+     * are not. Entities must only be created or destroyed, and components
+     * only added or removed, through the {@link CommandBuffer} returned by
+     * {@link Engine#getCommandBuffer()}; the buffers are played back once
+     * all systems have been initialized.
+     *
+     * @param parallelInitialization
+     *            whether to initialize systems concurrently.
+     * @return {@code this} for chaining.
+     */
+    public EngineConfig setParallelInitialization(boolean parallelInitialization) {
+        this.parallelInitialization = parallelInitialization;
+        return this;
+    }
+
+    /**
+     * Sets how often changes are flushed during {@link Engine#update()}.
+     * Flushing less often saves updating the membership of all families
+     * between systems, but systems then see stale entity sets. Defaults to
+     * {@link FlushPolicy#PER_SYSTEM}.
+     *
+     * @param flushPolicy
+     *            the flush policy.
+     * @return {@code this} for chaining.
+     */
+    public EngineConfig setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = Objects.requireNonNull(flushPolicy, "flushPolicy cannot be null");
+        return this;
+    }
+
+    /**
+     * Sets whether changes are flushed after the given system type is
+     * updated, overriding the {@link SkipFlush} annotation. This allows
+     * skipping individual flushes of the {@link FlushPolicy}.
+     *
+     * @param systemType
+     *            the system type.
+     * @param skipFlush
+     *            whether to skip the flush after systems of the type.
+     * @return {@code this} for chaining.
+     */
+    public EngineConfig setSkipFlush(Class<? extends EntitySystem> systemType, boolean skipFlush) {
+        Objects.requireNonNull(systemType, "systemType cannot be null");
+        skipFlushSystems.put(systemType, skipFlush);
+        return this;
+    }
+
+    /**
+     * Sets the metrics recorded by the engine. Metrics can only be recorded
+     * by a single engine. Defaults to {@code null}.
+     *
+     * @param metrics
+     *            metrics to record, or {@code null} to not record metrics.
+     * @return {@code this} for chaining.
+     */
+    public EngineConfig setMetrics(EngineMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Sets the pool used for parallel processing, such as by
+     * {@link ParallelEntityProcessorSystem}. If no pool is set, the engine
+     * uses a pool shared by all engines, with a parallelism equal to the
+     * number of available processors. A configured pool is not shut down by
+     * the engine.
+     *
+     * @param pool
+     *            pool to use, or {@code null} to use the shared pool.
+     * @return {@code this} for chaining.
+     */
+    public EngineConfig setForkJoinPool(ForkJoinPool pool) {
+        this.forkJoinPool = pool;
+        return this;
+    }
+
+    /**
+     * Sets the minimum amount of entities processed by a single task during
+     * parallel processing; chunks are split in halves until they are smaller
+     * than twice this size. Smaller chunks balance the load better, but the
+     * overhead of scheduling them is higher.
+     *
+     * @param minChunkSize
+     *            minimum chunk size, at least {@code 1}.
+     * @return {@code this} for chaining.
+     */
+    public EngineConfig setMinChunkSize(int minChunkSize) {
+        if (minChunkSize < 1) {
+            throw new IllegalArgumentException("minChunkSize < 1: " + minChunkSize);
+        }
+        this.minChunkSize = minChunkSize;
+        return this;
+    }
 }
@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import com.github.antag99.retinazer.util.Experimental;
+import com.github.antag99.retinazer.util.Mask;
+
+/**
+ * Records where an {@link Engine} spends its time, and how many entities and
+ * components change each frame. Metrics are recorded by passing an instance
+ * to {@link EngineConfig#setMetrics(EngineMetrics)}; an engine without
+ * metrics records nothing.
+ *
+ * <p>
+ * The metrics of the last {@link #getCapacity()} frames are kept in ring
+ * buffers that are allocated up front, so recording does not allocate.
+ * Frames are numbered from {@code 0} in the order of the calls to
+ * {@link Engine#update()}; the metrics of frames from
+ * {@link #getFirstFrame()} until {@link #getFrameCount()} are available.
+ * Changes made outside of {@link Engine#update()} are attributed to the next
+ * frame, except for those flushed when the engine is constructed (such as
+ * by {@link EntitySystem#initialize()}) or by {@link Engine#reset()}, which
+ * are not recorded.
+ *
+ * <p>
+ * Metrics must only be read from the thread updating the engine, in between
+ * calls to {@link Engine#update()}.
+ */
+@Experimental
+public final class EngineMetrics {
+    private final int capacity;
+    /** Number of recorded frames */
+    private long frameCount = 0L;
+    /** Ring buffer slot of the current frame */
+    private int slot = 0;
+
+    private final long[] frameTimes;
+    private final long[] flushTimes;
+    private final int[] flushIterations;
+    private final int[] entitiesCreated;
+    private final int[] entitiesDestroyed;
+    private final int[] componentsAdded;
+    private final int[] componentsRemoved;
+    private final int[] familyInsertions;
+    private final int[] familyRemovals;
+
+    /** Systems of the engine, in the order of their priority */
+    private EntitySystem[] systems;
+    /** Update time of each system, indexed by system and slot */
+    private long[][] systemTimes;
+
+    // Accumulated during the current frame
+    long currentFlushTime;
+    int currentFlushIterations;
+    int currentEntitiesDestroyed;
+    int currentComponentsRemoved;
+    int currentFamilyInsertions;
+    int currentFamilyRemovals;
+
+    /**
+     * Creates metrics that keep the given number of frames.
+     *
+     * @param capacity
+     *            number of frames to keep, at least {@code 1}.
+     */
+    public EngineMetrics(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.frameTimes = new long[capacity];
+        this.flushTimes = new long[capacity];
+        this.flushIterations = new int[capacity];
+        this.entitiesCreated = new int[capacity];
+        this.entitiesDestroyed = new int[capacity];
+        this.componentsAdded = new int[capacity];
+        this.componentsRemoved = new int[capacity];
+        this.familyInsertions = new int[capacity];
+        this.familyRemovals = new int[capacity];
+    }
+
+    void bind(EntitySystem[] systems) {
+        if (this.systems != null) {
+            throw new IllegalStateException("Metrics cannot be shared between engines");
+        }
+        this.systems = systems;
+        this.systemTimes = new long[systems.length][capacity];
+    }
+
+    void beginFrame() {
+        slot = (int) (frameCount % capacity);
+        currentFlushTime = 0L;
+        currentFlushIterations = 0;
+        currentEntitiesDestroyed = 0;
+        currentComponentsRemoved = 0;
+        currentFamilyInsertions = 0;
+        currentFamilyRemovals = 0;
+    }
+
+    void recordSystem(int system, long time) {
+        systemTimes[system][slot] = time;
+    }
+
+    void recordFlush(long time, int iterations) {
+        currentFlushTime += time;
+        currentFlushIterations += iterations;
+    }
+
+    /**
+     * Counts the entities and components that are about to be removed by
+     * the current iteration of the flush loop.
+     */
+    void recordRemovals(Engine engine) {
+        Mask remove = engine.entityManager.remove;
+        Mask entities = engine.entityManager.entities;
+        int destroyed = 0;
+        for (int w = remove.getDirtyFrom(), n = remove.getDirtyTo(); w < n; w++)
+            destroyed += Long.bitCount(remove.getWord(w) & entities.getWord(w));
+        currentEntitiesDestroyed += destroyed;
+
+        int removed = 0;
+        for (Mapper<?> mapper : engine.componentManager.array) {
+            Mask removeMask = mapper.removeMask;
+            Mask components = mapper.componentsMask.getMask();
+            for (int w = removeMask.getDirtyFrom(), n = removeMask.getDirtyTo(); w < n; w++)
+                removed += Long.bitCount(removeMask.getWord(w) & components.getWord(w));
+        }
+        currentComponentsRemoved += removed;
+    }
+
+    void endFrame(long time, int created, int added) {
+        int slot = this.slot;
+        frameTimes[slot] = time;
+        flushTimes[slot] = currentFlushTime;
+        flushIterations[slot] = currentFlushIterations;
+        entitiesCreated[slot] = created;
+        entitiesDestroyed[slot] = currentEntitiesDestroyed;
+        componentsAdded[slot] = added;
+        componentsRemoved[slot] = currentComponentsRemoved;
+        familyInsertions[slot] = currentFamilyInsertions;
+        familyRemovals[slot] = currentFamilyRemovals;
+        frameCount++;
+    }
+
+    private int getSlot(long frame) {
+        if (frame < getFirstFrame() || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("frame: " + frame +
+                    ", available: [" + getFirstFrame() + ", " + frameCount + ")");
+        }
+        return (int) (frame % capacity);
+    }
+
+    /**
+     * @return the number of frames that are kept.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of recorded frames.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return the oldest frame that is still kept.
+     */
+    public long getFirstFrame() {
+        return Math.max(0L, frameCount - capacity);
+    }
+
+    /**
+     * @return the number of systems of the engine.
+     */
+    public int getSystemCount() {
+        return systems == null ? 0 : systems.length;
+    }
+
+    /**
+     * Gets a system of the engine; systems are indexed in the order they
+     * are updated in, i.e. by priority.
+     *
+     * @param system
+     *            index of the system.
+     * @return the system.
+     */
+    public EntitySystem getSystem(int system) {
+        return systems[system];
+    }
+
+    /**
+     * @param system
+     *            index of the system.
+     * @param frame
+     *            the frame.
+     * @return time spent in {@link EntitySystem#update()}, in nanoseconds.
+     */
+    public long getSystemTime(int system, long frame) {
+        return systemTimes[system][getSlot(frame)];
+    }
+
+    /**
+     * @param frame
+     *            the frame.
+     * @return time spent in {@link Engine#update()}, in nanoseconds.
+     */
+    public long getFrameTime(long frame) {
+        return frameTimes[getSlot(frame)];
+    }
+
+    /**
+     * @param frame
+     *            the frame.
+     * @return time spent flushing changes, in nanoseconds.
+     */
+    public long getFlushTime(long frame) {
+        return flushTimes[getSlot(frame)];
+    }
+
+    /**
+     * Gets the number of iterations of the flush loop; each iteration
+     * updates the membership of all families, and changes made by entity
+     * listeners cause further iterations.
+     *
+     * @param frame
+     *            the frame.
+     * @return the number of flush iterations.
+     */
+    public int getFlushIterations(long frame) {
+        return flushIterations[getSlot(frame)];
+    }
+
+    /**
+     * @param frame
+     *            the frame.
+     * @return the number of created entities.
+     */
+    public int getEntitiesCreated(long frame) {
+        return entitiesCreated[getSlot(frame)];
+    }
+
+    /**
+     * @param frame
+     *            the frame.
+     * @return the number of destroyed entities.
+     */
+    public int getEntitiesDestroyed(long frame) {
+        return entitiesDestroyed[getSlot(frame)];
+    }
+
+    /**
+     * @param frame
+     *            the frame.
+     * @return the number of added components.
+     */
+    public int getComponentsAdded(long frame) {
+        return componentsAdded[getSlot(frame)];
+    }
+
+    /**
+     * Gets the number of removed components; this includes the components
+     * of destroyed entities.
+     *
+     * @param frame
+     *            the frame.
+     * @return the number of removed components.
+     */
+    public int getComponentsRemoved(long frame) {
+        return componentsRemoved[getSlot(frame)];
+    }
+
+    /**
+     * @param frame
+     *            the frame.
+     * @return the number of entities inserted into families, summed over all families.
+     */
+    public int getFamilyInsertions(long frame) {
+        return familyInsertions[getSlot(frame)];
+    }
+
+    /**
+     * @param frame
+     *            the frame.
+     * @return the number of entities removed from families, summed over all families.
+     */
+    public int getFamilyRemovals(long frame) {
+        return familyRemovals[getSlot(frame)];
+    }
+}
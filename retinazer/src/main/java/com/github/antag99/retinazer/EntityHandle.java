@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+/**
+ * Static helpers for entity handles. A handle packs the index of an entity
+ * together with its generation, which is incremented every time the index is
+ * assigned to a new entity. Unlike indices, handles remain unique after the
+ * entity has been destroyed; see {@link Engine#getHandle(int)} and
+ * {@link Engine#isAlive(long)}.
+ */
+public final class EntityHandle {
+    private EntityHandle() {
+    }
+
+    /**
+     * Packs the given entity index and generation into a handle.
+     *
+     * @param entity
+     *            the index of the entity.
+     * @param generation
+     *            the generation of the entity.
+     * @return the handle.
+     */
+    public static long of(int entity, int generation) {
+        return ((long) generation << 32) | (entity & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the index of the entity referred to by the given handle.
+     *
+     * @param handle
+     *            the handle.
+     * @return the index of the entity.
+     */
+    public static int getEntity(long handle) {
+        return (int) handle;
+    }
+
+    /**
+     * Gets the generation of the entity referred to by the given handle.
+     *
+     * @param handle
+     *            the handle.
+     * @return the generation of the entity.
+     */
+    public static int getGeneration(long handle) {
+        return (int) (handle >>> 32);
+    }
+}
@@ -38,28 +38,164 @@
 
 package com.github.antag99.retinazer;
 
+import com.github.antag99.retinazer.util.IntBag;
 import com.github.antag99.retinazer.util.Mask;
 
 final class EntityManager {
     private Engine engine;
 
     Mask entities = new Mask();
-    Mask removeQueue = new Mask();
-    Mask remove = new Mask();
+    Mask removeQueue = new Mask(true);
+    Mask remove = new Mask(true);
+
+    /** Mask of entities whose components changed since the last flush */
+    Mask changeQueue = new Mask(true);
+    /** Mask of entities whose family membership is updated by this flush */
+    Mask change = new Mask(true);
+
+    /** Stack of free indices below {@link #nextEntity} */
+    IntBag freeEntities = new IntBag();
+    /** Number of free indices in {@link #freeEntities} */
+    int freeEntityCount = 0;
+    /** Lowest index that has never been assigned */
+    int nextEntity = 0;
+    /** Whether {@link #freeEntities} is kept in descending order */
+    final boolean preferLowestIndices;
+    /** Temporary storage for freed indices, used when merging */
+    IntBag tmpFreed = new IntBag();
+
+    /** Entities created by the last call to {@link #createEntities} */
+    Mask created = new Mask(true);
+
+    /** Generation of each entity index; incremented when the index is reused */
+    IntBag generations = new IntBag();
+
+    /** Number of entities created since the last frame; only counted when recording metrics */
+    int createdCount = 0;
 
     public EntityManager(Engine engine, EngineConfig config) {
         this.engine = engine;
+        this.preferLowestIndices = config.preferLowestIndices;
     }
 
     public int createEntity() {
         engine.dirty = true;
-        int entity = entities.nextClearBit(0);
+        if (engine.metrics != null)
+            createdCount++;
+        int entity = freeEntityCount != 0
+                ? freeEntities.buffer[--freeEntityCount]
+                : nextEntity++;
         entities.set(entity);
+        int[] generations = this.generations.buffer;
+        if (entity < generations.length) {
+            generations[entity]++;
+        } else {
+            this.generations.set(entity, 1);
+        }
+        changeQueue.set(entity);
         return entity;
     }
 
+    /**
+     * Creates entities in bulk; their indices are stored in {@link #created}
+     * and {@code out}. Indices that are not taken from the free stack form a
+     * contiguous range, whose bits are set word by word.
+     */
+    public void createEntities(int count, IntBag out) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0: " + count);
+        }
+        engine.dirty = true;
+        if (engine.metrics != null)
+            createdCount += count;
+        created.clear();
+        out.ensureCapacity(count);
+        int[] indices = out.buffer;
+
+        int reused = Math.min(count, freeEntityCount);
+        int[] free = freeEntities.buffer;
+        for (int i = 0; i < reused; i++) {
+            int entity = free[--freeEntityCount];
+            indices[i] = entity;
+            created.set(entity);
+        }
+
+        int rangeFrom = nextEntity;
+        int rangeTo = nextEntity + (count - reused);
+        for (int i = reused, entity = rangeFrom; i < count; i++, entity++) {
+            indices[i] = entity;
+        }
+        created.set(rangeFrom, rangeTo);
+        nextEntity = rangeTo;
+
+        generations.ensureCapacity(nextEntity);
+        int[] generations = this.generations.buffer;
+        for (int i = 0; i < count; i++) {
+            generations[indices[i]]++;
+        }
+
+        entities.or(created);
+        changeQueue.or(created);
+    }
+
     public void destroyEntity(int entity) {
         engine.dirty = true;
         removeQueue.set(entity);
+        changeQueue.set(entity);
+    }
+
+    public void destroyEntities(Mask entities) {
+        engine.dirty = true;
+        removeQueue.or(entities);
+        changeQueue.or(entities);
+    }
+
+    /**
+     * Removes the entities of {@link #remove}, and pushes their indices to
+     * the free stack.
+     */
+    void removeEntities() {
+        long[] removeWords = remove.getWords();
+        long[] entityWords = entities.getWords();
+        int from = remove.getDirtyFrom();
+        int to = Math.min(remove.getDirtyTo(), entityWords.length);
+
+        if (!preferLowestIndices) {
+            // Destroying an entity twice must not free its index twice
+            IntBag freeEntities = this.freeEntities;
+            for (int w = from; w < to; w++) {
+                long word = removeWords[w] & entityWords[w];
+                while (word != 0L) {
+                    freeEntities.set(freeEntityCount++, (w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1L;
+                }
+            }
+        } else {
+            // The stack is ordered descending, so that the lowest index is
+            // on top; the freed indices are merged into it from the bottom.
+            int freedCount = 0;
+            for (int w = to - 1; w >= from; w--) {
+                long word = removeWords[w] & entityWords[w];
+                while (word != 0L) {
+                    int bit = 63 - Long.numberOfLeadingZeros(word);
+                    tmpFreed.set(freedCount++, (w << 6) + bit);
+                    word &= ~(1L << bit);
+                }
+            }
+
+            if (freedCount != 0) {
+                int count = freeEntityCount + freedCount;
+                freeEntities.ensureCapacity(count);
+                int[] free = freeEntities.buffer;
+                int[] freed = tmpFreed.buffer;
+                int i = freeEntityCount - 1, ii = freedCount - 1;
+                for (int k = count - 1; ii >= 0; k--) {
+                    free[k] = i >= 0 && free[i] < freed[ii] ? free[i--] : freed[ii--];
+                }
+                freeEntityCount = count;
+            }
+        }
+
+        entities.andNot(remove);
     }
 }
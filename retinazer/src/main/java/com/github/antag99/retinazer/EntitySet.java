@@ -21,6 +21,8 @@
  ******************************************************************************/
 package com.github.antag99.retinazer;
 
+import java.util.Arrays;
+
 import com.github.antag99.retinazer.util.IntBag;
 import com.github.antag99.retinazer.util.Mask;
 
@@ -88,38 +90,126 @@ public final class EntitySet {
      * @return the entities contained in this set.
      */
     public Mask getMask() {
-        return content.entities;
+        return content.entities.getMask();
     }
 
     /**
      * Returns an array containing the indices of all entities in this set.
-     * Note that whenever the entity set changes, this array must be
-     * reconstructed. Do <b>not</b> modify this.
+     * Note that whenever the entity set changes, this array must be updated;
+     * small changes are patched into the existing array, larger changes cause
+     * it to be reconstructed. Do <b>not</b> modify this.
      *
      * @return the indices of all entities in this set.
      */
     public IntBag getIndices() {
+        EntitySetContent content = this.content;
         if (content.indicesDirty) {
-            content.indices.clear();
             content.entities.getIndices(content.indices, 0);
+            content.indexCount = content.size;
             content.indicesDirty = false;
+        } else if (content.insertedCount != 0 || content.removedCount != 0) {
+            patchIndices(content);
         }
         return content.indices;
     }
 
+    /**
+     * Applies the recorded insertions and removals to the sorted indices;
+     * removed entities are compacted away and inserted entities are merged
+     * in. Runs of unchanged indices are moved using array copies.
+     */
+    private static void patchIndices(EntitySetContent content) {
+        int[] inserted = content.inserted.buffer;
+        int[] removed = content.removed.buffer;
+        int insertedCount = content.insertedCount;
+        int removedCount = content.removedCount;
+        int count = content.indexCount;
+        int[] indices = content.indices.buffer;
+
+        // An entity may have been inserted and removed again; the mask tells
+        // the final state, so only keep the changes that actually took effect.
+        // Removed entities are replaced by their position in the indices.
+        Arrays.sort(removed, 0, removedCount);
+        int removedPositions = 0;
+        for (int i = 0; i < removedCount; i++) {
+            int entity = removed[i];
+            if (i > 0 && removed[i - 1] == entity)
+                continue;
+            if (content.entities.get(entity))
+                continue;
+            int position = Arrays.binarySearch(indices, 0, count, entity);
+            if (position >= 0)
+                removed[removedPositions++] = position;
+        }
+
+        Arrays.sort(inserted, 0, insertedCount);
+        int insertedEntities = 0;
+        for (int i = 0; i < insertedCount; i++) {
+            int entity = inserted[i];
+            if (i > 0 && inserted[i - 1] == entity)
+                continue;
+            if (!content.entities.get(entity))
+                continue;
+            if (Arrays.binarySearch(indices, 0, count, entity) >= 0)
+                continue;
+            inserted[insertedEntities++] = entity;
+        }
+
+        // Compact removals, moving forward
+        if (removedPositions != 0) {
+            int write = removed[0];
+            for (int i = 0; i < removedPositions; i++) {
+                int start = removed[i] + 1;
+                int end = i + 1 < removedPositions ? removed[i + 1] : count;
+                System.arraycopy(indices, start, indices, write, end - start);
+                write += end - start;
+            }
+            count = write;
+        }
+
+        // Merge insertions, moving backward
+        if (insertedEntities != 0) {
+            content.indices.ensureCapacity(count + insertedEntities);
+            indices = content.indices.buffer;
+            int read = count;
+            int write = count + insertedEntities;
+            for (int i = insertedEntities - 1; i >= 0; i--) {
+                int entity = inserted[i];
+                int position = -Arrays.binarySearch(indices, 0, read, entity) - 1;
+                int length = read - position;
+                write -= length;
+                System.arraycopy(indices, position, indices, write, length);
+                indices[--write] = entity;
+                read = position;
+            }
+            count += insertedEntities;
+        }
+
+        content.indexCount = count;
+        content.insertedCount = 0;
+        content.removedCount = 0;
+    }
+
+    /**
+     * Returns the number of entities in this set. The count is maintained
+     * whenever the set is modified, so this is a constant-time operation.
+     *
+     * @return the number of entities in this set.
+     */
     public int size() {
-        return content.entities.cardinality();
+        return content.size;
     }
 
     public boolean isEmpty() {
-        return size() == 0;
+        return content.size == 0;
     }
 
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof EntitySet))
             return false;
-        return ((EntitySet) obj).content.entities.equals(content.entities);
+        EntitySetContent other = ((EntitySet) obj).content;
+        return other.size == content.size && other.entities.equals(content.entities);
     }
 
     @Override
@@ -21,11 +21,22 @@
  ******************************************************************************/
 package com.github.antag99.retinazer;
 
+import com.github.antag99.retinazer.util.HierarchicalMask;
 import com.github.antag99.retinazer.util.IntBag;
-import com.github.antag99.retinazer.util.Mask;
 
 final class EntitySetContent {
-    public Mask entities = new Mask();
+    public HierarchicalMask entities = new HierarchicalMask();
     public IntBag indices = new IntBag();
+    /** Whether the indices must be rebuilt from scratch */
     public boolean indicesDirty = false;
+    /** Number of valid elements in indices, before pending changes are applied */
+    public int indexCount = 0;
+    /** Entities inserted since the indices were last updated */
+    public IntBag inserted = new IntBag();
+    public int insertedCount = 0;
+    /** Entities removed since the indices were last updated */
+    public IntBag removed = new IntBag();
+    public int removedCount = 0;
+    /** Number of entities in this set, maintained by {@link EntitySetEdit} */
+    public int size = 0;
 }
@@ -30,38 +30,102 @@ public final class EntitySetEdit {
         this.content = content;
     }
 
+    /**
+     * Records a change, so that the indices can be patched instead of rebuilt.
+     * Once too many changes are pending, a full rebuild is cheaper and the
+     * indices are marked dirty instead.
+     */
+    private void recordChange(boolean inserted, int entity) {
+        EntitySetContent content = this.content;
+        if (content.indicesDirty) {
+            return;
+        }
+
+        int pending = content.insertedCount + content.removedCount;
+        if (pending >= 16 + (content.indexCount >> 3)) {
+            content.indicesDirty = true;
+            content.insertedCount = 0;
+            content.removedCount = 0;
+            return;
+        }
+
+        if (inserted) {
+            content.inserted.set(content.insertedCount++, entity);
+        } else {
+            content.removed.set(content.removedCount++, entity);
+        }
+    }
+
+    private void recordChanges(boolean inserted, int wordIndex, long word) {
+        while (word != 0L && !content.indicesDirty) {
+            recordChange(inserted, (wordIndex << 6) + Long.numberOfTrailingZeros(word));
+            word &= word - 1;
+        }
+    }
+
     public void addEntity(int entity) {
         if (!content.entities.get(entity)) {
-            content.indicesDirty = true;
+            recordChange(true, entity);
             content.entities.set(entity);
+            content.size++;
         }
     }
 
     public void addEntities(Mask entities) {
-        if (!content.entities.isSupersetOf(entities)) {
-            content.indicesDirty = true;
-            content.entities.or(entities);
+        for (int i = entities.getDirtyFrom(), n = entities.getDirtyTo(); i < n; i++) {
+            addWord(i, entities.getWord(i));
         }
     }
 
     public void removeEntity(int entity) {
         if (content.entities.get(entity)) {
-            content.indicesDirty = true;
+            recordChange(false, entity);
             content.entities.clear(entity);
+            content.size--;
         }
     }
 
     public void removeEntities(Mask entities) {
-        if (content.entities.intersects(entities)) {
-            content.indicesDirty = true;
-            content.entities.andNot(entities);
+        for (int i = entities.getDirtyFrom(), n = entities.getDirtyTo(); i < n; i++) {
+            removeWord(i, entities.getWord(i));
+        }
+    }
+
+    /**
+     * Adds the entities set in the given word of the mask; this avoids
+     * touching the whole mask when only a few words change.
+     */
+    void addWord(int wordIndex, long word) {
+        long current = content.entities.getWord(wordIndex);
+        long added = word & ~current;
+        if (added != 0L) {
+            recordChanges(true, wordIndex, added);
+            content.entities.setWord(wordIndex, current | added);
+            content.size += Long.bitCount(added);
+        }
+    }
+
+    /**
+     * Removes the entities set in the given word of the mask; this avoids
+     * touching the whole mask when only a few words change.
+     */
+    void removeWord(int wordIndex, long word) {
+        long current = content.entities.getWord(wordIndex);
+        long removed = current & word;
+        if (removed != 0L) {
+            recordChanges(false, wordIndex, removed);
+            content.entities.setWord(wordIndex, current & ~removed);
+            content.size -= Long.bitCount(removed);
         }
     }
 
     public void clear() {
-        if (!content.entities.isEmpty()) {
+        if (content.size != 0) {
             content.indicesDirty = true;
+            content.insertedCount = 0;
+            content.removedCount = 0;
             content.entities.clear();
+            content.size = 0;
         }
     }
 }
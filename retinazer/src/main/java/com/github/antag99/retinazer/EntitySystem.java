@@ -48,6 +48,10 @@ public abstract class EntitySystem {
      */
     protected Engine engine;
 
+    /** Index of this system in the update order of the engine */
+    @SkipWire
+    int index;
+
     /**
      * Framework-side initialization method. End users should not override
      * this method. Always call {@code super.setup()} when overriding this.
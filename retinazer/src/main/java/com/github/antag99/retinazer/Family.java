@@ -46,9 +46,10 @@ public final class Family {
     final int index;
     final EntitySet entities = new EntitySet();
     EntityListener[] listeners = new EntityListener[0];
+    Archetype[] archetypes = new Archetype[0];
 
-    Mask removeEntities = new Mask();
-    Mask insertEntities = new Mask();
+    Mask removeEntities = new Mask(true);
+    Mask insertEntities = new Mask(true);
 
     Family(Engine engine,
             int[] components,
@@ -104,6 +105,31 @@ public final class Family {
         return entities.view();
     }
 
+    /**
+     * Gets the archetypes whose entities belong to this family. Together,
+     * the archetypes contain the same entities as {@link #getEntities()}.
+     * Do <b>not</b> modify the returned array; it is replaced when a new
+     * archetype is found.
+     *
+     * @return the archetypes of this family.
+     * @throws IllegalStateException
+     *             if archetypes are not enabled.
+     * @see EngineConfig#setArchetypes(boolean)
+     */
+    public Archetype[] getArchetypes() {
+        if (!engine.archetypeManager.enabled) {
+            throw new IllegalStateException("Archetypes are not enabled");
+        }
+        return archetypes;
+    }
+
+    void addArchetype(Archetype archetype) {
+        Archetype[] newArchetypes = new Archetype[archetypes.length + 1];
+        System.arraycopy(archetypes, 0, newArchetypes, 0, archetypes.length);
+        newArchetypes[archetypes.length] = archetype;
+        this.archetypes = newArchetypes;
+    }
+
     @Override
     public int hashCode() {
         return index;
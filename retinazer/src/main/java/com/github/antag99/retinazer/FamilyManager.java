@@ -42,6 +42,7 @@ import java.util.Map;
 import java.util.Set;
 
 import com.github.antag99.retinazer.util.Bag;
+import com.github.antag99.retinazer.util.IntBag;
 import com.github.antag99.retinazer.util.Mask;
 
 final class FamilyManager {
@@ -73,8 +74,7 @@ final class FamilyManager {
     private Key lookup = new Key();
     private EntitySet entities;
     private EntitySet argument = new EntitySet();
-    private Mask tmpMask = new Mask();
-    private Mask tmpMatchedEntities = new Mask();
+    private IntBag changedWords = new IntBag();
 
     public FamilyManager(Engine engine, EngineConfig config) {
         this.engine = engine;
@@ -117,80 +117,149 @@ final class FamilyManager {
             Mask matchedEntities = new Mask().set(engine.entityManager.entities);
 
             for (int component : components) {
-                matchedEntities.and(mappers[component].componentsMask);
+                matchedEntities.and(mappers[component].componentsMask.getMask());
             }
 
             for (int excludedComponent : excludedComponents) {
-                matchedEntities.andNot(mappers[excludedComponent].componentsMask);
+                matchedEntities.andNot(mappers[excludedComponent].componentsMask.getMask());
             }
 
             // No notifications to dispatch here
             family.entities.edit().addEntities(matchedEntities);
+
+            engine.archetypeManager.addFamily(family);
         }
 
         return families.get(index);
     }
 
+    int getFamilyCount() {
+        return familyIndices.size();
+    }
+
+    Family getFamily(int index) {
+        return families.get(index);
+    }
+
     /**
-     * Updates family membership for all entities. This will insert/remove entities
-     * to/from family sets.
+     * Brings the indices of all family sets up to date; indices are otherwise
+     * computed lazily, which is not safe when systems are updated concurrently.
      */
+    void updateIndices() {
+        for (int i = 0, n = familyIndices.size(); i < n; i++) {
+            families.get(i).entities.getIndices();
+        }
+    }
 
+    /**
+     * Updates family membership for all entities that changed since the last
+     * flush. This will insert/remove entities to/from family sets. Only the
+     * words of the changed entities are examined, so the cost is proportional
+     * to the number of changes rather than the number of entities.
+     */
     void updateFamilyMembership() {
         Mapper<?>[] mappers = engine.componentManager.array;
+        Mask entities = engine.entityManager.entities;
+        Mask remove = engine.entityManager.remove;
+        Mask change = engine.entityManager.change;
 
-        Mask tmpMask = this.tmpMask;
-        Mask tmpMatchedEntities = this.tmpMatchedEntities;
+        // Collect the indices of the changed words; all further work is
+        // limited to these.
+        IntBag changedWords = this.changedWords;
+        long[] changeWords = change.getWords();
+        int changedWordCount = 0;
+        for (int w = change.getDirtyFrom(), n = change.getDirtyTo(); w < n; w++) {
+            if (changeWords[w] != 0L) {
+                changedWords.set(changedWordCount++, w);
+            }
+        }
+        int[] wordIndices = changedWords.buffer;
+        EngineMetrics metrics = engine.metrics;
 
         for (int i = 0, n = familyIndices.size(); i < n; i++) {
             Family family = families.get(i);
-            EntitySet entities = family.entities;
+            EntitySetEdit edit = family.entities.edit();
+            Mask familyEntities = family.entities.getMask();
+            int[] components = family.components;
+            int[] excludedComponents = family.excludedComponents;
 
-            Mask matchedEntities = tmpMatchedEntities.set(engine.entityManager.entities);
-            matchedEntities.andNot(engine.entityManager.remove);
+            for (int ii = 0; ii < changedWordCount; ii++) {
+                int w = wordIndices[ii];
 
-            int[] components = family.components;
-            for (int component : components) {
-                Mapper<?> mapper = mappers[component];
-                tmpMask.set(mapper.componentsMask);
-                tmpMask.andNot(mapper.removeMask);
-                matchedEntities.and(tmpMask);
-            }
+                long matched = entities.getWord(w) & ~remove.getWord(w);
 
-            int[] excludedComponents = family.excludedComponents;
-            for (int excludedComponent : excludedComponents) {
-                Mapper<?> mapper = mappers[excludedComponent];
-                tmpMask.set(mapper.componentsMask);
-                tmpMask.andNot(mapper.removeMask);
-                matchedEntities.andNot(tmpMask);
-            }
+                for (int component : components) {
+                    Mapper<?> mapper = mappers[component];
+                    matched &= mapper.componentsMask.getWord(w) & ~mapper.removeMask.getWord(w);
+                }
+
+                for (int excludedComponent : excludedComponents) {
+                    Mapper<?> mapper = mappers[excludedComponent];
+                    matched &= ~(mapper.componentsMask.getWord(w) & ~mapper.removeMask.getWord(w));
+                }
+
+                long changeWord = changeWords[w];
+                long current = familyEntities.getWord(w);
+                long insert = matched & ~current & changeWord;
+                long removed = current & ~matched & changeWord;
 
-            family.insertEntities.set(matchedEntities);
-            family.insertEntities.andNot(entities.getMask());
-            entities.edit().addEntities(family.insertEntities);
+                if (insert != 0L) {
+                    family.insertEntities.setWord(w, insert);
+                    edit.addWord(w, insert);
+                    if (metrics != null)
+                        metrics.currentFamilyInsertions += Long.bitCount(insert);
+                }
 
-            family.removeEntities.set(entities.getMask());
-            family.removeEntities.andNot(matchedEntities);
-            entities.edit().removeEntities(family.removeEntities);
+                if (removed != 0L) {
+                    family.removeEntities.setWord(w, removed);
+                    edit.removeWord(w, removed);
+                    if (metrics != null)
+                        metrics.currentFamilyRemovals += Long.bitCount(removed);
+                }
+            }
         }
 
+        EntitySetEdit argumentEdit = argument.edit();
+
         for (int i = 0, n = familyIndices.size(); i < n; i++) {
             Family family = families.get(i);
+            Mask insertEntities = family.insertEntities;
+            Mask removeEntities = family.removeEntities;
+            boolean inserted = false, removed = false;
 
-            if (!family.insertEntities.isEmpty()) {
-                argument.edit().addEntities(family.insertEntities);
+            for (int ii = 0; ii < changedWordCount; ii++) {
+                int w = wordIndices[ii];
+                inserted |= insertEntities.getWord(w) != 0L;
+                removed |= removeEntities.getWord(w) != 0L;
+            }
+
+            if (inserted && family.listeners.length != 0) {
+                for (int ii = 0; ii < changedWordCount; ii++)
+                    argumentEdit.addWord(wordIndices[ii], insertEntities.getWord(wordIndices[ii]));
                 for (EntityListener listener : family.listeners) {
                     listener.inserted(argument.view());
                 }
-                argument.edit().clear();
+                for (int ii = 0; ii < changedWordCount; ii++)
+                    argumentEdit.removeWord(wordIndices[ii], insertEntities.getWord(wordIndices[ii]));
             }
 
-            if (!family.removeEntities.isEmpty()) {
-                argument.edit().addEntities(family.removeEntities);
+            if (removed && family.listeners.length != 0) {
+                for (int ii = 0; ii < changedWordCount; ii++)
+                    argumentEdit.addWord(wordIndices[ii], removeEntities.getWord(wordIndices[ii]));
                 for (EntityListener listener : family.listeners) {
                     listener.removed(argument.view());
                 }
-                argument.edit().clear();
+                for (int ii = 0; ii < changedWordCount; ii++)
+                    argumentEdit.removeWord(wordIndices[ii], removeEntities.getWord(wordIndices[ii]));
+            }
+
+            // Leave the event masks empty for the next flush
+            for (int ii = 0; ii < changedWordCount; ii++) {
+                int w = wordIndices[ii];
+                if (insertEntities.getWord(w) != 0L)
+                    insertEntities.setWord(w, 0L);
+                if (removeEntities.getWord(w) != 0L)
+                    removeEntities.setWord(w, 0L);
             }
         }
     }
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+/**
+ * Determines how often {@link Engine#update()} flushes changes; see
+ * {@link EngineConfig#setFlushPolicy(FlushPolicy)}. Flushing applies pending
+ * removals, updates the membership of families, notifies entity listeners
+ * and plays back command buffers. Systems updated before a flush see the
+ * entity sets as they were after the previous flush. Individual systems can
+ * skip the flush after them using {@link SkipFlush}.
+ */
+public enum FlushPolicy {
+    /**
+     * Changes are flushed after each system, or after each group of systems
+     * updated concurrently.
+     */
+    PER_SYSTEM,
+    /**
+     * Changes are flushed after all systems of a {@link Priority} have been
+     * updated.
+     */
+    PER_PRIORITY,
+    /**
+     * Changes are flushed once all systems have been updated.
+     */
+    PER_FRAME;
+}
@@ -37,10 +37,11 @@
  ******************************************************************************/
 package com.github.antag99.retinazer;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 
 import com.github.antag99.retinazer.util.Bag;
+import com.github.antag99.retinazer.util.HierarchicalMask;
 import com.github.antag99.retinazer.util.IntBag;
 import com.github.antag99.retinazer.util.Mask;
 
@@ -57,43 +58,146 @@ public final class Mapper<T extends Component> {
     Class<T> type;
     /** Unique index for the component type */
     int typeIndex;
-    /** Zero-arg constructor for the component */
-    Constructor<T> constructor;
+    /** Factory for the component; {@code null} if there is none */
+    ComponentFactory<? extends T> factory;
 
     /** Stores components */
     Bag<T> components = new Bag<T>();
     /** Mask of current components */
-    Mask componentsMask = new Mask();
+    HierarchicalMask componentsMask = new HierarchicalMask();
 
     /** Mask of components that will be removed */
-    Mask removeMask = new Mask();
+    Mask removeMask = new Mask(true);
     /** Mask of components to be removed later */
-    Mask removeQueueMask = new Mask();
+    Mask removeQueueMask = new Mask(true);
+    /** Number of components added since the last frame; only counted when recording metrics */
+    int addedCount = 0;
 
     /** Temporary buffer that stores the set bits of removeMask */
     IntBag tmpRemove = new IntBag();
+    /** Whether removed components are recycled */
+    final boolean pooled;
+    /** Recycled components */
+    Bag<T> pool = new Bag<T>();
+    /** Number of recycled components in {@link #pool} */
+    int poolSize = 0;
+    /**
+     * Flyweight of a packed component type, or the shared instance of a tag
+     * component type; {@code null} for other types
+     */
+    final T flyweight;
+    /** Suffix of the names of generated implementations of abstract packed component types */
+    static final String PACKED_SUFFIX = "$$Packed";
+
+    /** Same as {@link #flyweight} for packed component types */
+    final PackedComponent packed;
+    /** Flyweight used by {@link #add(int, Component)} for packed component types */
+    private PackedComponent addTarget;
+    /** Sparse set storing components, instead of {@link #components} */
+    final SparseStorage<T> sparse;
 
-    Mapper(Engine engine, Class<T> type, int typeIndex) {
+    Mapper(Engine engine, Class<T> type, int typeIndex, boolean pooled, boolean sparse, boolean tag,
+            ComponentFactory<? extends T> factory) {
         this.engine = engine;
         this.type = type;
         this.typeIndex = typeIndex;
+        this.pooled = pooled;
+        this.factory = factory;
+        if (factory == null) {
+            try {
+                this.factory = new ConstructorComponentFactory<T>(type.getConstructor());
+            } catch (NoSuchMethodException ex) {
+                this.factory = null;
+            }
+        }
+        if (PackedComponent.class.isAssignableFrom(type)) {
+            if (factory == null && Modifier.isAbstract(type.getModifiers())) {
+                this.factory = findGeneratedFactory(type);
+            }
+            this.flyweight = newInstance();
+            this.packed = (PackedComponent) flyweight;
+        } else if (tag) {
+            checkTag(type);
+            this.flyweight = newInstance();
+            this.packed = null;
+        } else {
+            this.flyweight = null;
+            this.packed = null;
+        }
+        this.sparse = sparse && flyweight == null ? new SparseStorage<T>() : null;
+    }
+
+    /**
+     * Checks that a tag component type has no data, as its single instance
+     * is shared by all entities.
+     */
+    private static void checkTag(Class<?> type) {
+        for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                    throw new IllegalArgumentException("Tag component type " + type.getName()
+                            + " cannot have instance fields: " + field.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the implementation of an abstract packed component type that was
+     * generated by the {@code retinazer-processor} annotation processor.
+     */
+    private static <T extends Component> ComponentFactory<T> findGeneratedFactory(Class<T> type) {
+        String name = type.getName() + PACKED_SUFFIX;
+        Class<? extends T> implementation;
         try {
-            this.constructor = type.getConstructor();
-            this.constructor.setAccessible(true);
+            implementation = Class.forName(name, true, type.getClassLoader()).asSubclass(type);
+        } catch (ClassNotFoundException ex) {
+            throw new RetinazerException("Packed component type " + type.getName()
+                    + " is abstract, but no implementation was generated;"
+                    + " is retinazer-processor on the annotation processor path?", ex);
+        }
+        try {
+            return new ConstructorComponentFactory<T>(implementation.getConstructor());
         } catch (NoSuchMethodException ex) {
-            this.constructor = null;
+            throw new RetinazerException("Failed to instantiate " + name, ex);
         }
     }
 
     /**
      * Retrieves a component of the type handled by this mapper. Returns {@code null}
      * if the specified entity does not have a component of the type.
+     * For packed component types, this returns a flyweight moved to the given
+     * entity (see {@link PackedComponent}); while the engine processes
+     * entities in parallel, each task has its own flyweight, which is looked
+     * up on every call. For tag
+     * component types, this returns the instance shared by all entities.
      *
      * @param entity
      *            the index of the entity.
      * @return the component; may be {@code null}.
      */
     public T get(int entity) {
+        if (flyweight != null) {
+            if (!componentsMask.get(entity)) {
+                return null;
+            }
+            if (packed != null) {
+                PackedComponent packed = this.packed;
+                if (engine.parallel) {
+                    CommandBuffer task = engine.getTaskCommandBuffer();
+                    if (task != null)
+                        packed = task.getFlyweight(this);
+                }
+                packed.index = entity;
+                @SuppressWarnings("unchecked")
+                T component = (T) packed;
+                return component;
+            }
+            return flyweight;
+        }
+        if (sparse != null) {
+            return componentsMask.get(entity) ? sparse.get(entity) : null;
+        }
         return components.get(entity);
     }
 
@@ -106,6 +210,9 @@ public final class Mapper<T extends Component> {
      * @return whether the entity has the component of the type handled by this mapper.
      */
     public boolean has(int entity) {
+        if (flyweight != null || sparse != null) {
+            return componentsMask.get(entity);
+        }
         return components.get(entity) != null;
     }
 
@@ -117,22 +224,175 @@ public final class Mapper<T extends Component> {
      * @return the created component.
      */
     public T create(int entity) {
-        if (constructor == null) {
-            throw new RetinazerException("Component type " + type.getName()
-                    + " does not expose a zero-argument constructor");
+        if (flyweight != null) {
+            if (componentsMask.get(entity)) {
+                throw new IllegalArgumentException("Cannot insert a component that "
+                        + "already exists: " + type.getName());
+            }
+            engine.dirty = true;
+            if (engine.metrics != null)
+                addedCount++;
+            componentsMask.set(entity);
+            engine.entityManager.changeQueue.set(entity);
+            if (packed != null) {
+                packed.index = entity;
+                packed.reset();
+            }
+            return flyweight;
+        }
+        T instance = createInstance();
+        add(entity, instance);
+        return instance;
+    }
+
+    /**
+     * Creates components for entities that were just created in bulk. The
+     * component storage is sized once, and the component mask is updated
+     * word by word.
+     *
+     * @param entities
+     *            the created entities.
+     * @param count
+     *            the number of created entities.
+     * @param mask
+     *            mask of the created entities.
+     */
+    void createAll(int[] entities, int count, Mask mask) {
+        if (engine.metrics != null)
+            addedCount += count;
+        if (flyweight != null) {
+            if (packed != null) {
+                for (int i = 0; i < count; i++) {
+                    packed.index = entities[i];
+                    packed.reset();
+                }
+            }
+            componentsMask.or(mask);
+            return;
         }
+        if (sparse != null) {
+            for (int i = 0; i < count; i++) {
+                sparse.add(entities[i], createInstance());
+            }
+            componentsMask.or(mask);
+            return;
+        }
+        components.ensureCapacity(mask.length());
+        Object[] buffer = components.buffer;
+        for (int i = 0; i < count; i++) {
+            buffer[entities[i]] = createInstance();
+        }
+        componentsMask.or(mask);
+    }
 
-        try {
-            T instance = constructor.newInstance();
-            add(entity, instance);
+    /**
+     * Obtains a component of the type handled by this mapper, without adding
+     * it to any entity. Recycled components are reused if this mapper is pooled.
+     *
+     * @return the component.
+     */
+    T createInstance() {
+        if (poolSize != 0) {
+            T instance = pool.get(--poolSize);
+            pool.set(poolSize, null);
             return instance;
-        } catch (InstantiationException ex) {
-            throw new AssertionError(ex);
-        } catch (IllegalAccessException ex) {
-            throw new AssertionError(ex);
-        } catch (InvocationTargetException ex) {
-            throw Internal.sneakyThrow(ex.getCause());
         }
+        return newInstance();
+    }
+
+    /**
+     * Returns a removed component to the pool.
+     *
+     * @param instance
+     *            the removed component.
+     */
+    void free(T instance) {
+        if (instance instanceof Poolable) {
+            ((Poolable) instance).reset();
+        }
+        pool.set(poolSize++, instance);
+    }
+
+    /**
+     * Gets the amount of components of a sparse component type; the
+     * components and their entities are stored densely, in the first
+     * {@code getDenseSize()} elements of {@link #getDenseComponents()} and
+     * {@link #getDenseEntities()}. Components pending removal are included.
+     *
+     * @return the amount of components.
+     * @throws IllegalStateException
+     *             if the component type is not sparse.
+     * @see Sparse
+     */
+    public int getDenseSize() {
+        return checkSparse().size;
+    }
+
+    /**
+     * Gets the densely stored components of a sparse component type. Do
+     * <b>not</b> modify this.
+     *
+     * @return the components.
+     * @throws IllegalStateException
+     *             if the component type is not sparse.
+     * @see #getDenseSize()
+     */
+    public Bag<T> getDenseComponents() {
+        return checkSparse().components;
+    }
+
+    /**
+     * Gets the entities of the densely stored components of a sparse
+     * component type. Do <b>not</b> modify this.
+     *
+     * @return the entities.
+     * @throws IllegalStateException
+     *             if the component type is not sparse.
+     * @see #getDenseSize()
+     */
+    public IntBag getDenseEntities() {
+        return checkSparse().entities;
+    }
+
+    private SparseStorage<T> checkSparse() {
+        if (sparse == null) {
+            throw new IllegalStateException("Component type " + type.getName()
+                    + " is not sparse");
+        }
+        return sparse;
+    }
+
+    /**
+     * Creates a flyweight for accessing components of a packed component
+     * type. The flyweight shares its storage with the one returned by
+     * {@link #get(int)}, but can be moved independently; see
+     * {@link PackedComponent#setIndex(int)}.
+     *
+     * @return the created flyweight.
+     * @throws IllegalStateException
+     *             if the component type is not packed.
+     */
+    public T createFlyweight() {
+        if (packed == null) {
+            throw new IllegalStateException("Component type " + type.getName()
+                    + " is not packed");
+        }
+        return type.cast(packed.duplicate());
+    }
+
+    /**
+     * Creates a new component of the type handled by this mapper, bypassing
+     * the pool; this may be called from any thread.
+     *
+     * @return the created component.
+     */
+    T newInstance() {
+        if (factory == null) {
+            throw new RetinazerException("Component type " + type.getName()
+                    + " does not expose a zero-argument constructor");
+        }
+
+        return factory.create();
     }
 
     /**
@@ -140,7 +400,10 @@ public final class Mapper<T extends Component> {
      * will take effect immediately, but notifications will be delayed until
      * the next call to {@link Engine#flush()}. Note that it is <b>not</b>
      * permitted to replace an existing component; {@link #remove(int)} must
-     * be called first (and bear in mind that removals are delayed).
+     * be called first (and bear in mind that removals are delayed). For tag
+     * component types, the instance is not stored. For packed component
+     * types, the data that the instance refers to is copied, see
+     * {@link PackedComponent#copy(PackedComponent)}.
      *
      * @param entity
      *            the index of the entity.
@@ -148,14 +411,50 @@ public final class Mapper<T extends Component> {
      *            the component instance.
      */
     public void add(int entity, T instance) {
+        if (packed != null) {
+            if (instance.getClass() != packed.getClass()) {
+                throw new IllegalArgumentException("Cannot add " + instance.getClass().getName()
+                        + " as packed component " + type.getName());
+            }
+            if (has(entity)) {
+                throw new IllegalArgumentException("Cannot insert a component that "
+                        + "already exists: " + type.getName());
+            }
+            // The instance may be the flyweight moved by create(int)
+            PackedComponent target = addTarget;
+            if (target == null) {
+                addTarget = target = packed.duplicate();
+            }
+            target.index = entity;
+            target.reset();
+            target.copy((PackedComponent) instance);
+            engine.dirty = true;
+            if (engine.metrics != null)
+                addedCount++;
+            componentsMask.set(entity);
+            engine.entityManager.changeQueue.set(entity);
+            return;
+        }
+        if (flyweight != null) {
+            // Tag components carry no data, so the instance is not stored
+            create(entity);
+            return;
+        }
         if (has(entity)) {
             throw new IllegalArgumentException("Cannot insert a component that "
                     + "already exists: " + instance.getClass().getName());
         }
 
         engine.dirty = true;
-        components.set(entity, instance);
+        if (engine.metrics != null)
+            addedCount++;
+        if (sparse != null) {
+            sparse.add(entity, instance);
+        } else {
+            components.set(entity, instance);
+        }
         componentsMask.set(entity);
+        engine.entityManager.changeQueue.set(entity);
     }
 
     /**
@@ -178,5 +477,27 @@ public final class Mapper<T extends Component> {
 
         engine.dirty = true;
         removeQueueMask.set(entity);
+        engine.entityManager.changeQueue.set(entity);
+    }
+
+    /**
+     * Removes the components of all entities in the given mask. This is
+     * equivalent to calling {@link #remove(int)} for each entity, but
+     * operates word by word.
+     *
+     * @param entities
+     *            mask of the entities to remove components from.
+     */
+    public void removeAll(Mask entities) {
+        Mask changeQueue = engine.entityManager.changeQueue;
+        Mask components = componentsMask.getMask();
+        for (int w = entities.getDirtyFrom(), n = entities.getDirtyTo(); w < n; w++) {
+            long word = entities.getWord(w) & components.getWord(w);
+            if (word != 0L) {
+                engine.dirty = true;
+                removeQueueMask.setWord(w, removeQueueMask.getWord(w) | word);
+                changeQueue.setWord(w, changeQueue.getWord(w) | word);
+            }
+        }
     }
 }
@@ -26,7 +26,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 
 public final class MapperWireResolver implements WireResolver {
-    private Class<? extends Component> getType(Field field) {
+    static Class<? extends Component> getType(Field field) {
         if (field.getType() != Mapper.class)
             return null;
         Type type = field.getGenericType();
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.github.antag99.retinazer.util.Experimental;
+
+/**
+ * {@link PackedComponent} whose data is stored off-heap, in a direct
+ * {@link ByteBuffer}. Each entity occupies a fixed amount of bytes (the
+ * stride), and subclasses expose accessors reading and writing fields at
+ * fixed offsets within it:
+ *
+ * <pre>
+ * public final class Position extends OffHeapComponent {
+ *     public Position() { super(8); }
+ *
+ *     public float getX() { return getFloat(0); }
+ *     public void setX(float value) { setFloat(0, value); }
+ *     public float getY() { return getFloat(4); }
+ *     public void setY(float value) { setFloat(4, value); }
+ * }
+ * </pre>
+ *
+ * <p>
+ * Mapper semantics are the same as for other packed components; the data of
+ * an entity is zeroed when the component is created, and copied by
+ * {@link Mapper#add(int, Component)}. As the data lives in a single
+ * {@code ByteBuffer}, the index of an entity times the stride must fit in
+ * 2 GB; creating a component beyond that limit fails.
+ */
+@Experimental
+public abstract class OffHeapComponent extends PackedComponent {
+    /** Storage shared by all flyweights of a mapper */
+    private static final class Storage {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(0).order(ByteOrder.nativeOrder());
+    }
+
+    private final Storage storage = new Storage();
+    private final int stride;
+
+    /**
+     * @param stride
+     *            amount of bytes used by each entity.
+     */
+    protected OffHeapComponent(int stride) {
+        if (stride < 1) {
+            throw new IllegalArgumentException("stride < 1: " + stride);
+        }
+        this.stride = stride;
+    }
+
+    /**
+     * Gets the position of the given offset within the data of the entity,
+     * failing if it is beyond the maximum size of a {@link ByteBuffer}.
+     */
+    private int position(int offset) {
+        long position = (long) index * stride + offset;
+        if (position > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Off-heap storage of " + getClass().getName()
+                    + " is limited to 2 GB; entity " + index + " does not fit");
+        }
+        return (int) position;
+    }
+
+    @Override
+    protected void reset() {
+        int offset = position(0);
+        // Checks that the end of the data fits as well
+        position(stride);
+        ByteBuffer buffer = storage.buffer;
+        if (offset + stride > buffer.capacity()) {
+            long newCapacity = Math.min((long) buffer.capacity() * 2, Integer.MAX_VALUE);
+            ByteBuffer newBuffer = ByteBuffer.allocateDirect((int) Math.max(offset + stride, newCapacity))
+                    .order(ByteOrder.nativeOrder());
+            buffer.clear();
+            newBuffer.put(buffer);
+            newBuffer.clear();
+            storage.buffer = buffer = newBuffer;
+        }
+        int end = offset + stride;
+        int i = offset;
+        for (; i + 8 <= end; i += 8) {
+            buffer.putLong(i, 0L);
+        }
+        for (; i < end; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    @Override
+    protected void copy(PackedComponent source) {
+        if (source.getClass() != getClass()) {
+            throw new IllegalArgumentException("Cannot copy " + source.getClass().getName()
+                    + " to " + getClass().getName());
+        }
+        // Duplicates have their own position and limit, so that other
+        // flyweights sharing the buffers are not affected
+        ByteBuffer from = ((OffHeapComponent) source).storage.buffer.duplicate();
+        ByteBuffer to = storage.buffer.duplicate();
+        int fromOffset = ((OffHeapComponent) source).position(0);
+        from.limit(fromOffset + stride);
+        from.position(fromOffset);
+        to.position(position(0));
+        to.put(from);
+    }
+
+    protected final byte getByte(int offset) {
+        return storage.buffer.get(position(offset));
+    }
+
+    protected final void setByte(int offset, byte value) {
+        storage.buffer.put(position(offset), value);
+    }
+
+    protected final short getShort(int offset) {
+        return storage.buffer.getShort(position(offset));
+    }
+
+    protected final void setShort(int offset, short value) {
+        storage.buffer.putShort(position(offset), value);
+    }
+
+    protected final int getInt(int offset) {
+        return storage.buffer.getInt(position(offset));
+    }
+
+    protected final void setInt(int offset, int value) {
+        storage.buffer.putInt(position(offset), value);
+    }
+
+    protected final long getLong(int offset) {
+        return storage.buffer.getLong(position(offset));
+    }
+
+    protected final void setLong(int offset, long value) {
+        storage.buffer.putLong(position(offset), value);
+    }
+
+    protected final float getFloat(int offset) {
+        return storage.buffer.getFloat(position(offset));
+    }
+
+    protected final void setFloat(int offset, float value) {
+        storage.buffer.putFloat(position(offset), value);
+    }
+
+    protected final double getDouble(int offset) {
+        return storage.buffer.getDouble(position(offset));
+    }
+
+    protected final void setDouble(int offset, double value) {
+        storage.buffer.putDouble(position(offset), value);
+    }
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import com.github.antag99.retinazer.util.Bag;
+import com.github.antag99.retinazer.util.ByteBag;
+import com.github.antag99.retinazer.util.DoubleBag;
+import com.github.antag99.retinazer.util.Experimental;
+import com.github.antag99.retinazer.util.FloatBag;
+import com.github.antag99.retinazer.util.IntBag;
+import com.github.antag99.retinazer.util.LongBag;
+import com.github.antag99.retinazer.util.ShortBag;
+
+/**
+ * Base class for component types whose data is stored in parallel primitive
+ * arrays (such as {@link com.github.antag99.retinazer.util.FloatBag}), rather
+ * than in one object per entity. Subclasses declare the bags as fields, and
+ * expose accessors that read and write them at {@link #index}:
+ *
+ * <pre>
+ * public final class Position extends PackedComponent {
+ *     private final FloatBag x = new FloatBag();
+ *     private final FloatBag y = new FloatBag();
+ *
+ *     public float getX() { return x.buffer[index]; }
+ *     public void setX(float value) { x.buffer[index] = value; }
+ *     // ...
+ *
+ *     protected void reset() {
+ *         x.set(index, 0f);
+ *         y.set(index, 0f);
+ *     }
+ * }
+ * </pre>
+ *
+ * <p>
+ * Alternatively, the class can be declared {@code abstract}, with abstract
+ * accessors only; the {@code retinazer-processor} annotation processor then
+ * generates the storage and accessors. Accessors taking the entity index as
+ * their first parameter do not move the flyweight, and can therefore be
+ * called on the same instance from multiple threads:
+ *
+ * <pre>
+ * public abstract class Position extends PackedComponent {
+ *     public abstract float getX();
+ *     public abstract void setX(float value);
+ *     public abstract float getX(int entity);
+ *     public abstract void setX(int entity, float value);
+ * }
+ * </pre>
+ *
+ * <p>
+ * {@link Mapper#get(int)} and {@link Mapper#create(int)} move a flyweight
+ * to the given entity and return it, so the returned component is only
+ * valid until the next call on the same mapper. While the engine processes
+ * entities in parallel, each task (see {@link CommandBuffer}) has its own
+ * flyweights, so that tasks do not interfere with each other; otherwise,
+ * the flyweight of the mapper is used. Finding the flyweight of the current
+ * task costs a thread-local lookup on each call, so parallel code should
+ * rather use accessors taking the entity index, or a flyweight obtained once
+ * per task using {@link Mapper#createFlyweight()}, which shares the same
+ * storage.
+ *
+ * <p>
+ * {@link Mapper#add(int, Component)} creates the component, and copies the
+ * data that the given instance refers to (see {@link #copy(PackedComponent)}).
+ */
+@Experimental
+public abstract class PackedComponent implements Component, Cloneable {
+    /** Index of the entity this flyweight refers to */
+    protected int index = -1;
+
+    /**
+     * Gets the index of the entity this flyweight refers to.
+     *
+     * @return the index of the entity.
+     */
+    public final int getIndex() {
+        return index;
+    }
+
+    /**
+     * Moves this flyweight to the given entity. This does not check whether
+     * the entity has the component.
+     *
+     * @param index
+     *            the index of the entity.
+     */
+    public final void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Resets the data at {@link #index} to the values of a newly created
+     * component. This also makes sure that the storage is large enough.
+     */
+    protected abstract void reset();
+
+    /**
+     * Copies the data at the index of the given component to the index of
+     * this one. The default implementation copies the elements of all fields
+     * of a primitive bag type or {@link Bag}, using reflection; subclasses
+     * with other storage must override this.
+     *
+     * @param source
+     *            the component to copy; of the same type as this one.
+     */
+    protected void copy(PackedComponent source) {
+        if (source.getClass() != getClass()) {
+            throw new IllegalArgumentException("Cannot copy " + source.getClass().getName()
+                    + " to " + getClass().getName());
+        }
+        int from = source.index;
+        int to = index;
+        try {
+            for (Class<?> c = getClass(); c != PackedComponent.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()))
+                        continue;
+                    field.setAccessible(true);
+                    Object src = field.get(source);
+                    Object dst = field.get(this);
+                    if (dst instanceof FloatBag) {
+                        ((FloatBag) dst).set(to, ((FloatBag) src).get(from));
+                    } else if (dst instanceof IntBag) {
+                        ((IntBag) dst).set(to, ((IntBag) src).get(from));
+                    } else if (dst instanceof DoubleBag) {
+                        ((DoubleBag) dst).set(to, ((DoubleBag) src).get(from));
+                    } else if (dst instanceof LongBag) {
+                        ((LongBag) dst).set(to, ((LongBag) src).get(from));
+                    } else if (dst instanceof ShortBag) {
+                        ((ShortBag) dst).set(to, ((ShortBag) src).get(from));
+                    } else if (dst instanceof ByteBag) {
+                        ((ByteBag) dst).set(to, ((ByteBag) src).get(from));
+                    } else if (dst instanceof Bag) {
+                        @SuppressWarnings("unchecked")
+                        Bag<Object> bag = (Bag<Object>) dst;
+                        bag.set(to, ((Bag<?>) src).get(from));
+                    }
+                }
+            }
+        } catch (IllegalAccessException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    /**
+     * Creates a flyweight that shares the storage of this one.
+     */
+    final PackedComponent duplicate() {
+        try {
+            PackedComponent flyweight = (PackedComponent) clone();
+            flyweight.index = -1;
+            return flyweight;
+        } catch (CloneNotSupportedException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+}
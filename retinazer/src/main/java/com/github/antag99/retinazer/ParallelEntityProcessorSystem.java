@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * {@link EntityProcessorSystem} that processes its entities in parallel, by
+ * splitting the indices into chunks that are processed by the pool of the
+ * engine (see {@link EngineConfig#setForkJoinPool}). Chunks are no smaller
+ * than the configured minimum chunk size (see {@link EngineConfig#setMinChunkSize}).
+ *
+ * <p>
+ * {@link #process(int)} is invoked concurrently from multiple threads, so it
+ * must only touch state belonging to the processed entity. In particular,
+ * entities and components must not be created or removed from it directly;
+ * use the {@link CommandBuffer} of the current thread instead.
+ */
+public abstract class ParallelEntityProcessorSystem extends EntityProcessorSystem {
+
+    public ParallelEntityProcessorSystem(FamilyConfig family) {
+        super(family);
+    }
+
+    @Override
+    protected void processEntities() {
+        int[] buffer = getEntities().getIndices().buffer;
+        int size = getEntities().size();
+        int minChunkSize = engine.minChunkSize;
+
+        // Only split into chunks of at least minChunkSize entities
+        if (size < 2 * minChunkSize) {
+            for (int i = 0; i < size; i++) {
+                process(buffer[i]);
+            }
+        } else {
+            engine.invokeParallel(new ProcessTask(buffer, 0, size, minChunkSize));
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class ProcessTask extends RecursiveAction {
+        private final int[] buffer;
+        private final int start;
+        private final int end;
+        private final int minChunkSize;
+
+        ProcessTask(int[] buffer, int start, int end, int minChunkSize) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+            this.minChunkSize = minChunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start < 2 * minChunkSize) {
+                CommandBuffer previous = engine.beginTask(Engine.taskKey(index, start));
+                try {
+                    int[] buffer = this.buffer;
+                    for (int i = start, n = end; i < n; i++) {
+                        process(buffer[i]);
+                    }
+                } finally {
+                    engine.endTask(previous);
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new ProcessTask(buffer, start, middle, minChunkSize),
+                        new ProcessTask(buffer, middle, end, minChunkSize));
+            }
+        }
+    }
+}
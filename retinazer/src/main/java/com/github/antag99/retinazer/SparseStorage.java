@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import com.github.antag99.retinazer.util.Bag;
+import com.github.antag99.retinazer.util.IntBag;
+
+/**
+ * Sparse set storing the components of a {@link Mapper}. Components are kept
+ * in a dense array, along with the entities they belong to; a paged sparse
+ * array maps entities to their position in the dense array. Pages are only
+ * allocated for ranges of entities that have a component, so the memory used
+ * is proportional to the amount of components rather than to the highest
+ * entity index.
+ */
+final class SparseStorage<T extends Component> {
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+    /** Position in the dense arrays of each entity, paged */
+    int[][] pages = new int[0][];
+    /** Components, densely packed */
+    Bag<T> components = new Bag<T>();
+    /** Entity of each component in {@link #components} */
+    IntBag entities = new IntBag();
+    /** Number of components */
+    int size = 0;
+
+    /**
+     * Gets the component of the given entity, which must have one.
+     */
+    @SuppressWarnings("unchecked")
+    T get(int entity) {
+        return (T) components.buffer[pages[entity >>> PAGE_SHIFT][entity & PAGE_MASK]];
+    }
+
+    /**
+     * Adds a component to the given entity, which must not have one.
+     */
+    void add(int entity, T component) {
+        int page = entity >>> PAGE_SHIFT;
+        if (page >= pages.length) {
+            int[][] newPages = new int[Math.max(page + 1, pages.length * 2)][];
+            System.arraycopy(pages, 0, newPages, 0, pages.length);
+            pages = newPages;
+        }
+        if (pages[page] == null) {
+            pages[page] = new int[1 << PAGE_SHIFT];
+        }
+        pages[page][entity & PAGE_MASK] = size;
+        components.set(size, component);
+        entities.set(size, entity);
+        size++;
+    }
+
+    /**
+     * Removes the component of the given entity, which must have one. The
+     * last component is moved into its place.
+     *
+     * @return the removed component.
+     */
+    @SuppressWarnings("unchecked")
+    T remove(int entity) {
+        int[] page = pages[entity >>> PAGE_SHIFT];
+        int index = page[entity & PAGE_MASK];
+        Object[] components = this.components.buffer;
+        int[] entities = this.entities.buffer;
+        T component = (T) components[index];
+
+        int last = --size;
+        if (index != last) {
+            int lastEntity = entities[last];
+            components[index] = components[last];
+            entities[index] = lastEntity;
+            pages[lastEntity >>> PAGE_SHIFT][lastEntity & PAGE_MASK] = index;
+        }
+        components[last] = null;
+        return component;
+    }
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.github.antag99.retinazer.EngineConfig.EntitySystemRegistration;
+
+/**
+ * Divides systems into stages; the systems of a stage are updated
+ * concurrently, and changes are flushed between stages. A system is placed in
+ * the stage after the last stage containing a system it depends on; it
+ * depends on all preceding systems that have another priority, that do not
+ * declare their component access, or whose access conflicts with its own.
+ * Systems are not placed before the last stage, so that systems are updated
+ * in registration order, unless their access is declared
+ * {@link AccessConfig#unordered() unordered}.
+ */
+final class SystemScheduler {
+    private SystemScheduler() {
+    }
+
+    /**
+     * @param registrations
+     *            registrations, sorted by priority.
+     * @return systems of each stage.
+     */
+    static EntitySystem[][] schedule(List<EntitySystemRegistration> registrations) {
+        int n = registrations.size();
+        AccessConfig[] access = new AccessConfig[n];
+        int[] stageOfSystem = new int[n];
+        List<List<EntitySystem>> stages = new ArrayList<>();
+
+        for (int i = 0; i < n; i++) {
+            EntitySystemRegistration registration = registrations.get(i);
+            access[i] = registration.access != null ? registration.access
+                    : AccessConfig.fromAnnotations(registration.system.getClass());
+
+            int stage = access[i] != null && access[i].unordered ? 0 : Math.max(stages.size() - 1, 0);
+            for (int j = 0; j < i; j++) {
+                if (stageOfSystem[j] + 1 > stage && dependsOn(registrations, access, i, j)) {
+                    stage = stageOfSystem[j] + 1;
+                }
+            }
+
+            stageOfSystem[i] = stage;
+            if (stage == stages.size())
+                stages.add(new ArrayList<EntitySystem>());
+            stages.get(stage).add(registration.system);
+        }
+
+        EntitySystem[][] result = new EntitySystem[stages.size()][];
+        for (int i = 0; i < result.length; i++)
+            result[i] = stages.get(i).toArray(new EntitySystem[0]);
+        return result;
+    }
+
+    /**
+     * Divides systems into initialization stages; a system is placed in the
+     * stage after the last stage containing a system it declares as
+     * {@link InitializeAfter initialized before} it.
+     *
+     * @param systems
+     *            systems, sorted by priority.
+     * @param systemsByType
+     *            systems by their type.
+     * @return systems of each stage.
+     */
+    static EntitySystem[][] scheduleInitialization(EntitySystem[] systems,
+            Map<Class<? extends EntitySystem>, EntitySystem> systemsByType) {
+        int n = systems.length;
+        int[] stageOfSystem = new int[n];
+        // 0: not visited, 1: being visited, 2: visited
+        int[] state = new int[n];
+        List<List<EntitySystem>> stages = new ArrayList<>();
+
+        for (int i = 0; i < n; i++)
+            getInitializationStage(systems, systemsByType, i, stageOfSystem, state);
+
+        for (int i = 0; i < n; i++) {
+            int stage = stageOfSystem[i];
+            while (stage >= stages.size())
+                stages.add(new ArrayList<EntitySystem>());
+            stages.get(stage).add(systems[i]);
+        }
+
+        EntitySystem[][] result = new EntitySystem[stages.size()][];
+        for (int i = 0; i < result.length; i++)
+            result[i] = stages.get(i).toArray(new EntitySystem[0]);
+        return result;
+    }
+
+    private static int getInitializationStage(EntitySystem[] systems,
+            Map<Class<? extends EntitySystem>, EntitySystem> systemsByType,
+            int system, int[] stageOfSystem, int[] state) {
+        if (state[system] == 2)
+            return stageOfSystem[system];
+        Class<? extends EntitySystem> systemType = systems[system].getClass();
+        if (state[system] == 1)
+            throw new IllegalArgumentException(
+                    "Cyclic initialization dependency involving " + systemType.getName());
+        state[system] = 1;
+
+        int stage = 0;
+        InitializeAfter initializeAfter = systemType.getAnnotation(InitializeAfter.class);
+        if (initializeAfter != null) {
+            for (Class<? extends EntitySystem> dependencyType : initializeAfter.value()) {
+                EntitySystem dependency = systemsByType.get(dependencyType);
+                if (dependency == null)
+                    throw new IllegalArgumentException("System " + systemType.getName() +
+                            " depends on unregistered system " + dependencyType.getName());
+                int index = 0;
+                while (systems[index] != dependency)
+                    index++;
+                stage = Math.max(stage, getInitializationStage(
+                        systems, systemsByType, index, stageOfSystem, state) + 1);
+            }
+        }
+
+        stageOfSystem[system] = stage;
+        state[system] = 2;
+        return stage;
+    }
+
+    private static boolean dependsOn(List<EntitySystemRegistration> registrations,
+            AccessConfig[] access, int system, int dependency) {
+        if (access[system] == null || access[dependency] == null)
+            return true;
+        if (registrations.get(system).priority != registrations.get(dependency).priority)
+            return true;
+        return access[system].conflicts(access[dependency]);
+    }
+}
@@ -22,15 +22,76 @@
 package com.github.antag99.retinazer;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.List;
 
 final class WireCache {
+    /** Suffix of the names of generated {@link Wirer} classes */
+    static final String WIRER_SUFFIX = "$$Wirer";
+
+    /** Type of field setters, taking the object and the value */
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /** Marks fields whose value is not known in advance */
+    private static final Object NOT_CONSTANT = new Object();
+
     private final Engine engine;
+    /** Setters of fields with a constant value, bound to the value */
+    private final MethodHandle[] wireSetters;
+    /** Setters of fields with a constant value, bound to {@code null} */
+    private final MethodHandle[] unwireSetters;
+    /** Fields that are wired by calling the resolvers */
     private final Field[] fields;
     private final WireResolver[] wireResolvers;
+    /** Generated wirers of classes in the hierarchy */
+    private final Wirer[] wirers;
+
+    /**
+     * Finds the generated wirer for the given class.
+     *
+     * @return the wirer, or {@code null} if none was generated.
+     */
+    private static Wirer findWirer(Class<?> type) {
+        Class<?> wirerType;
+        try {
+            wirerType = Class.forName(type.getName() + WIRER_SUFFIX, true, type.getClassLoader());
+        } catch (ClassNotFoundException ex) {
+            return null;
+        }
+        try {
+            return wirerType.asSubclass(Wirer.class).getConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new RetinazerException("Failed to instantiate wirer " + wirerType.getName(), ex);
+        }
+    }
+
+    /**
+     * Finds the value the default resolvers always assign the given field, if
+     * the field is not first offered to any other kind of resolver.
+     *
+     * @return the value, or {@link #NOT_CONSTANT} if the resolvers must be
+     *         called for each wired object.
+     */
+    private static Object findConstantValue(Engine engine, WireResolver[] wireResolvers, Field field) {
+        for (WireResolver resolver : wireResolvers) {
+            if (resolver instanceof DefaultWireResolver) {
+                if (DefaultWireResolver.handles(field))
+                    return DefaultWireResolver.getValue(engine, field);
+            } else if (resolver instanceof MapperWireResolver) {
+                Class<? extends Component> type = MapperWireResolver.getType(field);
+                if (type != null)
+                    return engine.getMapper(type);
+            } else {
+                return NOT_CONSTANT;
+            }
+        }
+        return NOT_CONSTANT;
+    }
 
     private static <A extends Annotation> A findAnnotation(Annotation[] annotations, Class<A> annotationType) {
         for (Annotation annotation : annotations)
@@ -41,6 +102,7 @@ final class WireCache {
 
     public WireCache(Engine engine, Class<?> type, WireResolver[] wireResolvers) {
         List<Field> fields = new ArrayList<>();
+        List<Wirer> wirers = new ArrayList<>();
 
         List<Class<?>> hierarchy = new ArrayList<>();
         for (Class<?> current = type; current != Object.class; current = current.getSuperclass())
@@ -53,10 +115,15 @@ final class WireCache {
             boolean classWire = inheritWire;
             classWire |= findAnnotation(cls.getDeclaredAnnotations(), Wire.class) != null;
             classWire &= findAnnotation(cls.getDeclaredAnnotations(), SkipWire.class) == null;
+            inheritWire = classWire;
 
-            for (Field field : cls.getDeclaredFields()) {
-                field.setAccessible(true);
+            Wirer wirer = findWirer(cls);
+            if (wirer != null) {
+                wirers.add(wirer);
+                continue;
+            }
 
+            for (Field field : cls.getDeclaredFields()) {
                 if (Modifier.isStatic(field.getModifiers()))
                     continue;
 
@@ -71,19 +138,56 @@ final class WireCache {
                 fieldWire &= findAnnotation(field.getDeclaredAnnotations(), SkipWire.class) == null;
 
                 if (fieldWire) {
+                    field.setAccessible(true);
                     fields.add(field);
                 }
             }
+        }
 
-            inheritWire = classWire;
+        List<MethodHandle> wireSetters = new ArrayList<>();
+        List<MethodHandle> unwireSetters = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        for (int i = fields.size() - 1; i >= 0; i--) {
+            Field field = fields.get(i);
+            Object value = findConstantValue(engine, wireResolvers, field);
+            if (value == NOT_CONSTANT)
+                continue;
+
+            MethodHandle setter;
+            try {
+                setter = lookup.unreflectSetter(field);
+            } catch (IllegalAccessException ex) {
+                throw new RetinazerException("Failed to access field " +
+                        field.getName() + " of " + field.getDeclaringClass().getName(), ex);
+            }
+            setter = setter.asType(SETTER_TYPE);
+            wireSetters.add(MethodHandles.insertArguments(setter, 1, value));
+            unwireSetters.add(MethodHandles.insertArguments(setter, 1, (Object) null));
+            fields.remove(i);
         }
 
         this.engine = engine;
+        this.wireSetters = wireSetters.toArray(new MethodHandle[0]);
+        this.unwireSetters = unwireSetters.toArray(new MethodHandle[0]);
         this.fields = fields.toArray(new Field[0]);
         this.wireResolvers = wireResolvers;
+        this.wirers = wirers.toArray(new Wirer[0]);
     }
 
     public void wire(Object object) {
+        for (Wirer wirer : wirers)
+            wirer.wire(engine, object);
+
+        final MethodHandle[] wireSetters = this.wireSetters;
+        for (int i = 0; i < wireSetters.length; i++) {
+            try {
+                wireSetters[i].invokeExact(object);
+            } catch (Throwable ex) {
+                throw Internal.sneakyThrow(ex);
+            }
+        }
+
         final Field[] fields = this.fields;
         final WireResolver[] wireResolvers = this.wireResolvers;
 
@@ -106,6 +210,18 @@ final class WireCache {
     }
 
     public void unwire(Object object) {
+        for (Wirer wirer : wirers)
+            wirer.unwire(engine, object);
+
+        final MethodHandle[] unwireSetters = this.unwireSetters;
+        for (int i = 0; i < unwireSetters.length; i++) {
+            try {
+                unwireSetters[i].invokeExact(object);
+            } catch (Throwable ex) {
+                throw Internal.sneakyThrow(ex);
+            }
+        }
+
         final Field[] fields = this.fields;
         final WireResolver[] wireResolvers = this.wireResolvers;
 
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+/**
+ * Wires the fields declared by a specific class. Implementations are
+ * generated at build time by the {@code retinazer-processor} annotation
+ * processor, as {@code <binary name of the class>$$Wirer}; the engine uses
+ * them instead of reflection when they are present. Generated wirers only
+ * handle the fields supported by {@link DefaultWireResolver} and
+ * {@link MapperWireResolver}.
+ */
+public interface Wirer {
+
+    /**
+     * Wires the fields declared by the class of this wirer.
+     *
+     * @param engine The engine instance.
+     * @param object The object to wire.
+     */
+    void wire(Engine engine, Object object);
+
+    /**
+     * Un-wires the fields declared by the class of this wirer.
+     *
+     * @param engine The engine instance.
+     * @param object The object to un-wire.
+     */
+    void unwire(Engine engine, Object object);
+}
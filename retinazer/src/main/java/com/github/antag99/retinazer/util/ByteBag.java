@@ -49,6 +49,15 @@ public final class ByteBag {
         buffer = new byte[capacity];
     }
 
+    public void ensureCapacity(int capacity) {
+        if (this.buffer.length >= capacity)
+            return;
+        int newCapacity = Bag.nextPowerOfTwo(capacity);
+        byte[] newBuffer = new byte[newCapacity];
+        System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
+        this.buffer = newBuffer;
+    }
+
     public byte get(int index) {
         if (index < 0) {
             throw new IndexOutOfBoundsException("index < 0: " + index);
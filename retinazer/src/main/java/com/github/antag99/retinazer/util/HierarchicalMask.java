@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.util;
+
+/**
+ * Two-level bit set with the same API as {@link Mask}. In addition to the bits
+ * themselves, a summary mask with one bit per word is maintained, which is set
+ * if and only if the word is non-zero. Iteration, cardinality and emptiness
+ * checks only visit the populated words, which makes this suitable for sparse
+ * sets with a high maximum index.
+ */
+public final class HierarchicalMask {
+    /** The bits of this mask */
+    private final Mask words = new Mask(true);
+    /** Bit {@code i} is set if word {@code i} of {@link #words} is non-zero */
+    private final Mask summary = new Mask(true);
+
+    public HierarchicalMask() {
+    }
+
+    /**
+     * Gets the flat mask containing the bits of this mask. The returned mask
+     * is kept up to date with this mask. Do <b>not</b> modify this.
+     *
+     * @return The bits of this mask.
+     */
+    public Mask getMask() {
+        return words;
+    }
+
+    private void updateSummary(int wordIndex) {
+        summary.set(wordIndex, words.getWord(wordIndex) != 0L);
+    }
+
+    /**
+     * Sets this mask to the value of the other mask.
+     *
+     * @param other The value to set.
+     * @return {@code this} mask instance
+     */
+    public HierarchicalMask set(Mask other) {
+        clear();
+        or(other);
+        return this;
+    }
+
+    /**
+     * Sets this mask to the value of the other mask.
+     *
+     * @param other The value to set.
+     * @return {@code this} mask instance
+     */
+    public HierarchicalMask set(HierarchicalMask other) {
+        clear();
+        or(other);
+        return this;
+    }
+
+    /**
+     * Clears all bits in this mask.
+     */
+    public void clear() {
+        Mask summary = this.summary;
+        for (int w = summary.nextSetBit(0); w != -1; w = summary.nextSetBit(w + 1)) {
+            words.setWord(w, 0L);
+        }
+        summary.clear();
+    }
+
+    /**
+     * Sets all bits in this mask that are set in the other mask.
+     *
+     * @param other The other operand.
+     */
+    public void or(Mask other) {
+        for (int w = other.getDirtyFrom(), n = other.getDirtyTo(); w < n; w++) {
+            long word = other.getWord(w);
+            if (word != 0L) {
+                words.setWord(w, words.getWord(w) | word);
+                summary.set(w);
+            }
+        }
+    }
+
+    /**
+     * Sets all bits in this mask that are set in the other mask.
+     *
+     * @param other The other operand.
+     */
+    public void or(HierarchicalMask other) {
+        Mask otherSummary = other.summary;
+        for (int w = otherSummary.nextSetBit(0); w != -1; w = otherSummary.nextSetBit(w + 1)) {
+            words.setWord(w, words.getWord(w) | other.words.getWord(w));
+            summary.set(w);
+        }
+    }
+
+    /**
+     * Clears all bits in this mask that are also in the other masks, and sets
+     * all bits in this mask that are in the other mask but not in this mask.
+     *
+     * @param other The other operand.
+     */
+    public void xor(Mask other) {
+        for (int w = other.getDirtyFrom(), n = other.getDirtyTo(); w < n; w++) {
+            long word = other.getWord(w);
+            if (word != 0L) {
+                words.setWord(w, words.getWord(w) ^ word);
+                updateSummary(w);
+            }
+        }
+    }
+
+    /**
+     * Clears all bits in this mask that are not in the other mask.
+     *
+     * @param other The other operand.
+     */
+    public void and(Mask other) {
+        Mask summary = this.summary;
+        for (int w = summary.nextSetBit(0); w != -1; w = summary.nextSetBit(w + 1)) {
+            words.setWord(w, words.getWord(w) & other.getWord(w));
+            updateSummary(w);
+        }
+    }
+
+    /**
+     * Clears all the bits in this mask contained in the other mask. Only the
+     * words that are populated in this mask and dirty in the other mask are
+     * visited.
+     *
+     * @param other The other operand.
+     */
+    public void andNot(Mask other) {
+        Mask summary = this.summary;
+        int toWord = other.getDirtyTo();
+        for (int w = summary.nextSetBit(other.getDirtyFrom()); w != -1 && w < toWord; w = summary.nextSetBit(w + 1)) {
+            long word = other.getWord(w);
+            if (word != 0L) {
+                words.setWord(w, words.getWord(w) & ~word);
+                updateSummary(w);
+            }
+        }
+    }
+
+    /**
+     * Sets the bit at the given index in this mask.
+     *
+     * @param index The index of the bit.
+     */
+    public void set(int index) {
+        words.set(index);
+        summary.set(index >> 6);
+    }
+
+    /**
+     * Sets the bit at the given index in this mask to the given value.
+     *
+     * @param index The index of the bit.
+     * @param value The value of the bit.
+     */
+    public void set(int index, boolean value) {
+        if (value)
+            set(index);
+        else
+            clear(index);
+    }
+
+    /**
+     * Clears the bit at the given index in this mask.
+     *
+     * @param index The index of the bit.
+     */
+    public void clear(int index) {
+        words.clear(index);
+        if (words.getWord(index >> 6) == 0L) {
+            summary.clear(index >> 6);
+        }
+    }
+
+    /**
+     * Gets the value of the bit at the given index in this mask.
+     *
+     * @param index The index of the bit.
+     * @return The value of the bit.
+     */
+    public boolean get(int index) {
+        return words.get(index);
+    }
+
+    /**
+     * Returns the index of the set bit that is higher than or equal to the
+     * given index. Returns -1 in case no such bit exists.
+     *
+     * @param index The index to start looking from.
+     * @return The index of the next set bit.
+     */
+    public int nextSetBit(int index) {
+        int wordIndex = index >> 6;
+        long word = words.getWord(wordIndex) & (-1L << index);
+        if (word != 0L) {
+            return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+        }
+        wordIndex = summary.nextSetBit(wordIndex + 1);
+        if (wordIndex == -1) {
+            return -1;
+        }
+        return (wordIndex << 6) + Long.numberOfTrailingZeros(words.getWord(wordIndex));
+    }
+
+    /**
+     * Returns the index of the clear bit that is higher than or equal to the
+     * given index.
+     *
+     * @param index The index to start looking from.
+     * @return The index of the next clear bit.
+     */
+    public int nextClearBit(int index) {
+        return words.nextClearBit(index);
+    }
+
+    /**
+     * Returns whether all bits of the other mask are also contained in this mask.
+     *
+     * @param other The other mask.
+     * @return Whether this mask is a superset of the other mask.
+     */
+    public boolean isSupersetOf(Mask other) {
+        return words.isSupersetOf(other);
+    }
+
+    /**
+     * Returns whether all bits of the other mask are also contained in this mask.
+     *
+     * @param other The other mask.
+     * @return Whether this mask is a superset of the other mask.
+     */
+    public boolean isSupersetOf(HierarchicalMask other) {
+        Mask otherSummary = other.summary;
+        for (int w = otherSummary.nextSetBit(0); w != -1; w = otherSummary.nextSetBit(w + 1)) {
+            long otherWord = other.words.getWord(w);
+            if ((words.getWord(w) & otherWord) != otherWord)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether all bits of this mask are also contained in the other mask.
+     *
+     * @param other The other mask
+     * @return Whether this mask is a subset of the other mask.
+     */
+    public boolean isSubsetOf(Mask other) {
+        Mask summary = this.summary;
+        for (int w = summary.nextSetBit(0); w != -1; w = summary.nextSetBit(w + 1)) {
+            long word = words.getWord(w);
+            if ((other.getWord(w) & word) != word)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether any bits of this mask are also contained in the other mask.
+     *
+     * @param other The other mask.
+     * @return Whether this mask intersects the other mask.
+     */
+    public boolean intersects(Mask other) {
+        Mask summary = this.summary;
+        int toWord = other.getDirtyTo();
+        for (int w = summary.nextSetBit(other.getDirtyFrom()); w != -1 && w < toWord; w = summary.nextSetBit(w + 1)) {
+            if ((words.getWord(w) & other.getWord(w)) != 0L)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of set bits in this mask.
+     *
+     * @return The number of set bits in this mask.
+     */
+    public int cardinality() {
+        Mask summary = this.summary;
+        int cardinality = 0;
+        for (int w = summary.nextSetBit(0); w != -1; w = summary.nextSetBit(w + 1)) {
+            cardinality += Long.bitCount(words.getWord(w));
+        }
+        return cardinality;
+    }
+
+    /**
+     * Returns the index of the highest set bit in this mask plus one.
+     *
+     * @return The length of this mask.
+     */
+    public int length() {
+        int wordIndex = summary.length() - 1;
+        if (wordIndex < 0) {
+            return 0;
+        }
+        return (wordIndex << 6) + (64 - Long.numberOfLeadingZeros(words.getWord(wordIndex)));
+    }
+
+    /**
+     * Returns the indices of the set bits in this mask.
+     *
+     * @return The indices of the set bits in this mask.
+     */
+    public int[] getIndices() {
+        int[] indices = new int[cardinality()];
+        for (int i = 0, b = nextSetBit(0), n = indices.length; i < n; i++, b = nextSetBit(b + 1)) {
+            indices[i] = b;
+        }
+        return indices;
+    }
+
+    public int getIndices(IntBag out, int offset) {
+        int count = cardinality();
+        out.ensureCapacity(offset + count);
+        int[] buffer = out.buffer;
+        int i = offset;
+        Mask summary = this.summary;
+        for (int w = summary.nextSetBit(0); w != -1; w = summary.nextSetBit(w + 1)) {
+            long word = words.getWord(w);
+            while (word != 0L) {
+                buffer[i++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return count;
+    }
+
+    public long getWord(int index) {
+        return words.getWord(index);
+    }
+
+    public void setWord(int index, long word) {
+        words.setWord(index, word);
+        summary.set(index, word != 0L);
+    }
+
+    public boolean isEmpty() {
+        return summary.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return words.toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof HierarchicalMask))
+            return false;
+        return words.equals(((HierarchicalMask) obj).words);
+    }
+
+    @Override
+    public int hashCode() {
+        return words.hashCode();
+    }
+}
@@ -24,7 +24,68 @@ package com.github.antag99.retinazer.util;
 public final class Mask {
     private long[] words = new long[0];
 
+    /** Whether the range of dirty words is reported by this mask */
+    private final boolean trackDirty;
+    /** Lowest word that may contain set bits (inclusive) */
+    private int dirtyFrom = Integer.MAX_VALUE;
+    /** Highest word that may contain set bits (exclusive) */
+    private int dirtyTo = 0;
+
     public Mask() {
+        this(false);
+    }
+
+    /**
+     * Creates a new mask. A mask that tracks dirty words keeps a conservative
+     * range of the words that may contain set bits, and bulk operations only
+     * touch the words within that range. This pays off for sparse masks that
+     * are cleared often, at the cost of a couple of comparisons whenever a bit
+     * is set. Note that the backing buffer of such a mask must not be modified
+     * directly.
+     *
+     * @param trackDirty Whether to track the range of dirty words.
+     */
+    public Mask(boolean trackDirty) {
+        this.trackDirty = trackDirty;
+    }
+
+    /**
+     * Gets the index of the lowest word that may contain set bits. For masks
+     * that do not track dirty words, this is always zero.
+     *
+     * @return The first dirty word (inclusive).
+     */
+    public int getDirtyFrom() {
+        return trackDirty ? dirtyFrom : 0;
+    }
+
+    /**
+     * Gets the index of the highest word that may contain set bits, plus one.
+     * For masks that do not track dirty words, this is the size of the
+     * backing buffer. The range is empty if this is not greater than
+     * {@link #getDirtyFrom()}.
+     *
+     * @return The last dirty word (exclusive).
+     */
+    public int getDirtyTo() {
+        return trackDirty ? Math.min(dirtyTo, words.length) : words.length;
+    }
+
+    private void markDirty(int fromWord, int toWord) {
+        if (fromWord < toWord) {
+            if (fromWord < dirtyFrom)
+                dirtyFrom = fromWord;
+            if (toWord > dirtyTo)
+                dirtyTo = toWord;
+        }
+    }
+
+    private void ensureWords(int wordCount) {
+        if (words.length < wordCount) {
+            long[] newWords = new long[Bag.nextPowerOfTwo(wordCount)];
+            System.arraycopy(words, 0, newWords, 0, words.length);
+            this.words = newWords;
+        }
     }
 
     /**
@@ -34,7 +95,34 @@ public final class Mask {
      * @return {@code this} mask instance
      */
     public Mask set(Mask other) {
-        return set(other.words);
+        int fromWord = Math.min(getDirtyFrom(), other.getDirtyFrom());
+        int toWord = Math.max(getDirtyTo(), other.getDirtyTo());
+        set(other, fromWord, toWord);
+        dirtyFrom = other.getDirtyFrom();
+        dirtyTo = other.getDirtyTo();
+        return this;
+    }
+
+    /**
+     * Sets the words in the given range of this mask to the value of the same
+     * words in the other mask. Words outside the range are left unchanged.
+     *
+     * @param other The value to set.
+     * @param fromWord The first word of the range (inclusive).
+     * @param toWord The last word of the range (exclusive).
+     * @return {@code this} mask instance
+     */
+    public Mask set(Mask other, int fromWord, int toWord) {
+        long[] otherWords = other.words;
+        ensureWords(Math.min(toWord, otherWords.length));
+        long[] words = this.words;
+        int commonWords = Math.min(Math.min(toWord, words.length), otherWords.length);
+        for (int i = fromWord; i < commonWords; i++)
+            words[i] = otherWords[i];
+        for (int i = Math.max(fromWord, commonWords), n = Math.min(toWord, words.length); i < n; i++)
+            words[i] = 0L;
+        markDirty(fromWord, commonWords);
+        return this;
     }
 
     public Mask set(long[] otherWords) {
@@ -44,6 +132,9 @@ public final class Mask {
         System.arraycopy(otherWords, 0, words, 0, otherWords.length);
         for (int i = otherWords.length, n = words.length; i < n; i++)
             words[i] = 0;
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = 0;
+        markDirty(0, otherWords.length);
         return this;
     }
 
@@ -52,8 +143,10 @@ public final class Mask {
      */
     public void clear() {
         long[] words = this.words;
-        for (int i = 0, n = words.length; i < n; i++)
+        for (int i = getDirtyFrom(), n = getDirtyTo(); i < n; i++)
             words[i] = 0L;
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = 0;
     }
 
     /**
@@ -62,19 +155,26 @@ public final class Mask {
      * @param other The other operand.
      */
     public void or(Mask other) {
-        if (words.length < other.words.length) {
-            long[] newWords = new long[other.words.length];
-            System.arraycopy(words, 0, newWords, 0, words.length);
-            this.words = newWords;
-        }
+        or(other, other.getDirtyFrom(), other.getDirtyTo());
+    }
 
-        long[] words = this.words;
+    /**
+     * Sets all bits in the given word range of this mask that are set in the
+     * other mask.
+     *
+     * @param other The other operand.
+     * @param fromWord The first word of the range (inclusive).
+     * @param toWord The last word of the range (exclusive).
+     */
+    public void or(Mask other, int fromWord, int toWord) {
         long[] otherWords = other.words;
-        int commonWords = Math.min(words.length, otherWords.length);
-
-        for (int i = 0, n = commonWords; i < n; i++) {
+        int n = Math.min(toWord, otherWords.length);
+        ensureWords(n);
+        long[] words = this.words;
+        for (int i = fromWord; i < n; i++) {
             words[i] |= otherWords[i];
         }
+        markDirty(fromWord, n);
     }
 
     /**
@@ -84,19 +184,15 @@ public final class Mask {
      * @param other The other operand.
      */
     public void xor(Mask other) {
-        if (words.length < other.words.length) {
-            long[] newWords = new long[other.words.length];
-            System.arraycopy(words, 0, newWords, 0, words.length);
-            this.words = newWords;
-        }
-
-        long[] words = this.words;
         long[] otherWords = other.words;
-        int commonWords = Math.min(words.length, otherWords.length);
-
-        for (int i = 0, n = commonWords; i < n; i++) {
+        int fromWord = other.getDirtyFrom();
+        int n = Math.min(other.getDirtyTo(), otherWords.length);
+        ensureWords(n);
+        long[] words = this.words;
+        for (int i = fromWord; i < n; i++) {
             words[i] ^= otherWords[i];
         }
+        markDirty(fromWord, n);
     }
 
     /**
@@ -105,16 +201,29 @@ public final class Mask {
      * @param other The other operand.
      */
     public void and(Mask other) {
+        and(other, getDirtyFrom(), getDirtyTo());
+    }
+
+    /**
+     * Clears all bits in the given word range of this mask that are not in
+     * the other mask.
+     *
+     * @param other The other operand.
+     * @param fromWord The first word of the range (inclusive).
+     * @param toWord The last word of the range (exclusive).
+     */
+    public void and(Mask other, int fromWord, int toWord) {
         long[] words = this.words;
         long[] otherWords = other.words;
-        int commonWords = Math.min(words.length, otherWords.length);
+        int n = Math.min(toWord, words.length);
+        int commonWords = Math.min(n, otherWords.length);
 
-        for (int i = otherWords.length, n = words.length; i < n; i++) {
-            words[i] = 0;
+        for (int i = fromWord; i < commonWords; i++) {
+            words[i] &= otherWords[i];
         }
 
-        for (int i = 0, n = commonWords; i < n; i++) {
-            words[i] &= otherWords[i];
+        for (int i = Math.max(fromWord, commonWords); i < n; i++) {
+            words[i] = 0;
         }
     }
 
@@ -124,11 +233,25 @@ public final class Mask {
      * @param other The other operand.
      */
     public void andNot(Mask other) {
+        andNot(other,
+                Math.max(getDirtyFrom(), other.getDirtyFrom()),
+                Math.min(getDirtyTo(), other.getDirtyTo()));
+    }
+
+    /**
+     * Clears all the bits in the given word range of this mask that are
+     * contained in the other mask.
+     *
+     * @param other The other operand.
+     * @param fromWord The first word of the range (inclusive).
+     * @param toWord The last word of the range (exclusive).
+     */
+    public void andNot(Mask other, int fromWord, int toWord) {
         long[] words = this.words;
         long[] otherWords = other.words;
-        int commonWords = Math.min(words.length, otherWords.length);
+        int commonWords = Math.min(Math.min(toWord, words.length), otherWords.length);
 
-        for (int i = 0; i < commonWords; i++) {
+        for (int i = fromWord; i < commonWords; i++) {
             words[i] &= ~otherWords[i];
         }
     }
@@ -148,6 +271,36 @@ public final class Mask {
         }
         // Note: index is truncated before shifting
         words[wordIndex] |= 1L << index;
+        if (wordIndex < dirtyFrom)
+            dirtyFrom = wordIndex;
+        if (wordIndex >= dirtyTo)
+            dirtyTo = wordIndex + 1;
+    }
+
+    /**
+     * Sets the bits in the given range of this mask.
+     *
+     * @param fromIndex The index of the first bit (inclusive).
+     * @param toIndex The index after the last bit (exclusive).
+     */
+    public void set(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex)
+            return;
+        int fromWord = fromIndex >> 6;
+        int toWord = (toIndex - 1) >> 6;
+        ensureWords(toWord + 1);
+        // Note: indices are truncated before shifting
+        long firstMask = -1L << fromIndex;
+        long lastMask = -1L >>> -toIndex;
+        if (fromWord == toWord) {
+            words[fromWord] |= firstMask & lastMask;
+        } else {
+            words[fromWord] |= firstMask;
+            for (int i = fromWord + 1; i < toWord; i++)
+                words[i] = -1L;
+            words[toWord] |= lastMask;
+        }
+        markDirty(fromWord, toWord + 1);
     }
 
     /**
@@ -200,14 +353,22 @@ public final class Mask {
     public int nextSetBit(int index) {
         long[] words = this.words;
         int wordIndex = index >> 6;
-        if (wordIndex >= words.length) {
+        int toWord = getDirtyTo();
+        if (wordIndex >= toWord) {
             return -1;
         }
-        long word = words[wordIndex] & (-1L << index);
+        long word;
+        int fromWord = getDirtyFrom();
+        if (wordIndex < fromWord) {
+            wordIndex = fromWord;
+            word = words[wordIndex];
+        } else {
+            word = words[wordIndex] & (-1L << index);
+        }
         while (true) {
             if (word != 0)
                 return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
-            if (++wordIndex == words.length)
+            if (++wordIndex == toWord)
                 return -1;
             word = words[wordIndex];
         }
@@ -244,11 +405,13 @@ public final class Mask {
     public boolean isSupersetOf(Mask other) {
         final long[] words = this.words;
         final long[] otherWords = other.words;
-        final int commonWords = Math.min(words.length, otherWords.length);
-        for (int i = commonWords, n = otherWords.length; i < n; i++)
+        final int fromWord = other.getDirtyFrom();
+        final int toWord = other.getDirtyTo();
+        final int commonWords = Math.min(words.length, toWord);
+        for (int i = Math.max(fromWord, commonWords); i < toWord; i++)
             if (otherWords[i] != 0)
                 return false;
-        for (int i = 0, n = commonWords; i < n; i++)
+        for (int i = fromWord; i < commonWords; i++)
             if ((words[i] & otherWords[i]) != otherWords[i])
                 return false;
         return true;
@@ -273,8 +436,9 @@ public final class Mask {
     public boolean intersects(Mask other) {
         final long[] words = this.words;
         final long[] otherWords = other.words;
-        final int commonWords = Math.min(words.length, otherWords.length);
-        for (int i = 0, n = commonWords; i < n; i++)
+        final int fromWord = Math.max(getDirtyFrom(), other.getDirtyFrom());
+        final int toWord = Math.min(getDirtyTo(), other.getDirtyTo());
+        for (int i = fromWord; i < toWord; i++)
             if ((words[i] & otherWords[i]) != 0)
                 return true;
         return false;
@@ -288,7 +452,7 @@ public final class Mask {
     public int cardinality() {
         final long[] words = this.words;
         int cardinality = 0;
-        for (int i = 0, n = words.length; i < n; i++)
+        for (int i = getDirtyFrom(), n = getDirtyTo(); i < n; i++)
             cardinality += Long.bitCount(words[i]);
         return cardinality;
     }
@@ -300,7 +464,7 @@ public final class Mask {
      */
     public int length() {
         final long[] words = this.words;
-        for (int i = words.length - 1; i >= 0; i--) {
+        for (int i = getDirtyTo() - 1, n = getDirtyFrom(); i >= n; i--) {
             if (words[i] != 0L) {
                 return (i << 6) + (64 - Long.numberOfLeadingZeros(words[i]));
             }
@@ -342,6 +506,8 @@ public final class Mask {
             this.words = newWords;
         }
         words[index] = word;
+        if (word != 0L)
+            markDirty(index, index + 1);
     }
 
     /**
@@ -361,7 +527,7 @@ public final class Mask {
 
     /**
      * Gets the backing buffer of this mask. Does not exclude trailing zero
-     * words.
+     * words. Do <b>not</b> modify this if the mask tracks dirty words.
      */
     public long[] getWords() {
         return words;
@@ -369,7 +535,7 @@ public final class Mask {
 
     public boolean isEmpty() {
         final long[] words = this.words;
-        for (int i = 0; i < words.length; i++) {
+        for (int i = getDirtyFrom(), n = getDirtyTo(); i < n; i++) {
             if (words[i] != 0L) {
                 return false;
             }
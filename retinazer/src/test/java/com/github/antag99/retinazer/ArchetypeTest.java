@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.github.antag99.retinazer.util.FloatBag;
+import com.github.antag99.retinazer.util.IntBag;
+
+public class ArchetypeTest {
+    private static Set<Integer> getEntities(Archetype[] archetypes) {
+        Set<Integer> entities = new HashSet<>();
+        for (Archetype archetype : archetypes) {
+            int size = 0;
+            for (int i = 0, n = archetype.getChunkCount(); i < n; i++) {
+                int[] chunk = archetype.getChunk(i);
+                for (int ii = 0, m = archetype.getChunkSize(i); ii < m; ii++) {
+                    assertTrue(entities.add(chunk[ii]));
+                    size++;
+                }
+            }
+            assertEquals(archetype.size(), size);
+        }
+        return entities;
+    }
+
+    private static void checkComponents(Archetype[] archetypes, Mapper<?> mapper) {
+        for (Archetype archetype : archetypes) {
+            if (!archetype.has(mapper))
+                continue;
+            for (int i = 0, n = archetype.getChunkCount(); i < n; i++) {
+                int[] chunk = archetype.getChunk(i);
+                Component[] components = archetype.getComponents(mapper, i);
+                for (int ii = 0, m = archetype.getChunkSize(i); ii < m; ii++) {
+                    assertSame(mapper.get(chunk[ii]), components[ii]);
+                }
+            }
+        }
+    }
+
+    private static Set<Integer> getEntities(EntitySet entitySet) {
+        Set<Integer> entities = new HashSet<>();
+        IntBag indices = entitySet.getIndices();
+        for (int i = 0, n = entitySet.size(); i < n; i++) {
+            entities.add(indices.get(i));
+        }
+        return entities;
+    }
+
+    @Test
+    public void testArchetypes() {
+        Engine engine = new Engine(new EngineConfig().setArchetypes(true));
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        Mapper<FlagComponentB> mFlagB = engine.getMapper(FlagComponentB.class);
+        Family familyA = engine.getFamily(Family.with(FlagComponentA.class));
+        Family familyNotB = engine.getFamily(Family.exclude(FlagComponentB.class));
+        Random random = new Random(456);
+
+        for (int frame = 0; frame < 30; frame++) {
+            for (int i = 0; i < 2000; i++) {
+                int entity = random.nextInt(3000);
+                switch (random.nextInt(4)) {
+                case 0:
+                    if (!engine.getEntities().getMask().get(entity))
+                        entity = engine.createEntity();
+                    else
+                        engine.destroyEntity(entity);
+                    break;
+                case 1:
+                    if (engine.getEntities().getMask().get(entity) && !mFlagA.has(entity))
+                        mFlagA.create(entity);
+                    break;
+                case 2:
+                    if (engine.getEntities().getMask().get(entity) && !mFlagB.has(entity))
+                        mFlagB.create(entity);
+                    break;
+                case 3:
+                    mFlagA.remove(entity);
+                    break;
+                }
+            }
+            engine.update();
+
+            assertEquals(getEntities(familyA.getEntities()), getEntities(familyA.getArchetypes()));
+            assertEquals(getEntities(familyNotB.getEntities()), getEntities(familyNotB.getArchetypes()));
+            checkComponents(familyA.getArchetypes(), mFlagA);
+            checkComponents(familyNotB.getArchetypes(), mFlagA);
+            assertEquals(getEntities(engine.getEntities()),
+                    getEntities(engine.getFamily(Family.create()).getArchetypes()));
+        }
+
+        Family familyAB = engine.getFamily(Family.with(FlagComponentA.class, FlagComponentB.class));
+        assertEquals(1, familyAB.getArchetypes().length);
+        assertTrue(familyAB.getArchetypes()[0].has(mFlagA));
+        assertTrue(familyAB.getArchetypes()[0].has(mFlagB));
+        assertEquals(getEntities(familyAB.getEntities()), getEntities(familyAB.getArchetypes()));
+    }
+
+    public static final class Position extends PackedComponent {
+        private final FloatBag x = new FloatBag();
+
+        @Override
+        protected void reset() {
+            x.set(index, 0f);
+        }
+    }
+
+    @Test
+    public void testChunkComponents() {
+        Engine engine = new Engine(new EngineConfig().setArchetypes(true));
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        Mapper<Position> mPosition = engine.getMapper(Position.class);
+        Family family = engine.getFamily(Family.with(FlagComponentA.class, Position.class));
+        for (int i = 0; i < 3000; i++) {
+            int entity = engine.createEntity();
+            mFlagA.create(entity);
+            mPosition.create(entity);
+        }
+        engine.update();
+        for (int i = 0; i < 3000; i += 3) {
+            mFlagA.remove(i);
+        }
+        engine.update();
+
+        Archetype archetype = family.getArchetypes()[0];
+        assertEquals(2000, archetype.size());
+        assertEquals(2, archetype.getChunkCount());
+        FlagComponentA[] components = archetype.getComponents(mFlagA, 1);
+        for (int i = 0, n = archetype.getChunkSize(1); i < n; i++) {
+            assertSame(mFlagA.get(archetype.getChunk(1)[i]), components[i]);
+        }
+        // Slots past the end of the last chunk do not retain removed components
+        assertNull(components[archetype.getChunkSize(1)]);
+
+        try {
+            archetype.getComponents(mPosition, 0);
+            fail("Packed components are not stored in chunks");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDisabled() {
+        Engine engine = new Engine(new EngineConfig());
+        engine.getFamily(Family.create()).getArchetypes();
+    }
+}
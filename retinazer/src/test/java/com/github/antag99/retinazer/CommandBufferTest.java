@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class CommandBufferTest {
+    public static final class SpawningSystem extends ParallelEntityProcessorSystem {
+        private Mapper<FlagComponentA> mFlagA;
+        private Mapper<FlagComponentB> mFlagB;
+
+        public SpawningSystem() {
+            super(Family.with(FlagComponentA.class));
+        }
+
+        @Override
+        protected void process(int entity) {
+            CommandBuffer buffer = engine.getCommandBuffer();
+            buffer.remove(mFlagA, entity);
+            int spawned = buffer.createEntity();
+            buffer.create(mFlagB, spawned);
+        }
+    }
+
+    @Test
+    public void testParallelPlayback() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Engine engine = new Engine(new EngineConfig()
+                .addSystem(new SpawningSystem())
+                .setForkJoinPool(pool)
+                .setMinChunkSize(16));
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        for (int i = 0; i < 1000; i++) {
+            mFlagA.create(engine.createEntity());
+        }
+        engine.update();
+        engine.update();
+        assertEquals(2000, engine.getEntities().size());
+        assertEquals(0, engine.getFamily(Family.with(FlagComponentA.class)).getEntities().size());
+        assertEquals(1000, engine.getFamily(Family.with(FlagComponentB.class)).getEntities().size());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testPlaceholders() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        Mapper<FlagComponentB> mFlagB = engine.getMapper(FlagComponentB.class);
+        int existing = engine.createEntity();
+        mFlagA.create(existing);
+        engine.update();
+
+        CommandBuffer buffer = engine.getCommandBuffer();
+        assertSame(buffer, engine.getCommandBuffer());
+        int first = buffer.createEntity();
+        int second = buffer.createEntity();
+        assertTrue(first < 0 && second < 0 && first != second);
+        FlagComponentB component = new FlagComponentB();
+        buffer.add(mFlagB, second, component);
+        buffer.destroyEntity(first);
+        buffer.remove(mFlagA, existing);
+        assertFalse(buffer.isEmpty());
+        assertTrue(mFlagA.has(existing));
+
+        engine.update();
+        assertTrue(buffer.isEmpty());
+        assertFalse(mFlagA.has(existing));
+        assertEquals(2, engine.getEntities().size());
+        assertEquals(existing, engine.getEntities().getIndices().get(0));
+        int created = engine.getEntities().getIndices().get(1);
+        assertSame(component, mFlagB.get(created));
+    }
+
+    public static final class SourceComponent implements Component {
+        public int source;
+    }
+
+    public static final class RecordingSystem extends ParallelEntityProcessorSystem {
+        private Mapper<SourceComponent> mSource;
+
+        public RecordingSystem() {
+            super(Family.with(FlagComponentA.class));
+        }
+
+        @Override
+        protected void process(int entity) {
+            CommandBuffer buffer = engine.getCommandBuffer();
+            int spawned = buffer.createEntity();
+            buffer.create(mSource, spawned).source = entity;
+        }
+    }
+
+    @Test
+    public void testDeterministicPlayback() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (int run = 0; run < 5; run++) {
+            Engine engine = new Engine(new EngineConfig()
+                    .addSystem(new RecordingSystem())
+                    .setForkJoinPool(pool)
+                    .setMinChunkSize(16));
+            Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+            Mapper<SourceComponent> mSource = engine.getMapper(SourceComponent.class);
+            for (int i = 0; i < 1000; i++) {
+                mFlagA.create(engine.createEntity());
+            }
+            engine.update();
+            // Buffers are played back in the order of the processed entities
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i, mSource.get(1000 + i).source);
+            }
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testFailedPlayback() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<FlagComponentB> mFlagB = engine.getMapper(FlagComponentB.class);
+        int entity = engine.createEntity();
+        mFlagB.create(entity);
+        CommandBuffer buffer = engine.getCommandBuffer();
+        buffer.create(mFlagB, entity);
+        try {
+            engine.update();
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // Component already exists
+        }
+        assertTrue(buffer.isEmpty());
+        buffer.remove(mFlagB, entity);
+        engine.update();
+        assertFalse(mFlagB.has(entity));
+    }
+}
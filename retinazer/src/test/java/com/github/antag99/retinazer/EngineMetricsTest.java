@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class EngineMetricsTest {
+
+    @Test
+    public void testMetrics() {
+        FlagSystemA system = new FlagSystemA();
+        EngineMetrics metrics = new EngineMetrics(2);
+        Engine engine = new Engine(new EngineConfig()
+                .addSystem(system)
+                .setMetrics(metrics));
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+
+        assertEquals(1, metrics.getSystemCount());
+        assertSame(system, metrics.getSystem(0));
+        assertEquals(0, metrics.getFrameCount());
+
+        int entity0 = engine.createEntity();
+        int entity1 = engine.createEntity();
+        int entity2 = engine.createEntity();
+        mFlagA.create(entity0);
+        mFlagA.create(entity1);
+        mFlagA.create(entity2);
+        engine.update();
+
+        assertEquals(1, metrics.getFrameCount());
+        assertEquals(3, metrics.getEntitiesCreated(0));
+        assertEquals(0, metrics.getEntitiesDestroyed(0));
+        assertEquals(3, metrics.getComponentsAdded(0));
+        assertEquals(0, metrics.getComponentsRemoved(0));
+        assertEquals(3, metrics.getFamilyInsertions(0));
+        assertEquals(0, metrics.getFamilyRemovals(0));
+        assertEquals(1, metrics.getFlushIterations(0));
+        assertTrue(metrics.getSystemTime(0, 0) >= 0L);
+        assertTrue(metrics.getFrameTime(0) >= metrics.getFlushTime(0));
+
+        engine.destroyEntity(entity0);
+        engine.update();
+
+        assertEquals(2, metrics.getFrameCount());
+        assertEquals(0, metrics.getEntitiesCreated(1));
+        assertEquals(1, metrics.getEntitiesDestroyed(1));
+        assertEquals(0, metrics.getComponentsAdded(1));
+        assertEquals(1, metrics.getComponentsRemoved(1));
+        assertEquals(0, metrics.getFamilyInsertions(1));
+        assertEquals(1, metrics.getFamilyRemovals(1));
+
+        mFlagA.remove(entity1);
+        engine.update();
+
+        assertEquals(3, metrics.getFrameCount());
+        assertEquals(1, metrics.getFirstFrame());
+        assertEquals(0, metrics.getEntitiesDestroyed(2));
+        assertEquals(1, metrics.getComponentsRemoved(2));
+        assertEquals(1, metrics.getFamilyRemovals(2));
+        // Frame 0 has been overwritten, frame 1 is still kept
+        assertEquals(1, metrics.getEntitiesDestroyed(1));
+    }
+
+    public static final class InitializingSystem extends EntitySystem {
+        private Mapper<FlagComponentA> mFlagA;
+
+        @Override
+        protected void initialize() {
+            mFlagA.create(engine.createEntity());
+            mFlagA.create(engine.createEntity());
+        }
+    }
+
+    @Test
+    public void testInitialization() {
+        EngineMetrics metrics = new EngineMetrics(4);
+        Engine engine = new Engine(new EngineConfig()
+                .addSystem(new InitializingSystem())
+                .setMetrics(metrics));
+        EntitySet entities = engine.getFamily(Family.with(FlagComponentA.class)).getEntities();
+        engine.getMapper(FlagComponentA.class).create(engine.createEntity());
+        engine.update();
+
+        // Only the changes made after construction are recorded
+        assertEquals(1, metrics.getEntitiesCreated(0));
+        assertEquals(1, metrics.getComponentsAdded(0));
+        assertEquals(1, metrics.getFamilyInsertions(0));
+        assertEquals(3, entities.size());
+
+        engine.createEntity();
+        engine.reset();
+        engine.update();
+        assertEquals(0, metrics.getEntitiesCreated(1));
+        assertEquals(0, metrics.getEntitiesDestroyed(1));
+    }
+
+    @Test
+    public void testWithoutMetrics() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        mFlagA.create(engine.createEntity());
+        engine.update();
+        assertEquals(0, engine.entityManager.createdCount);
+        assertEquals(0, mFlagA.addedCount);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOverwrittenFrame() {
+        EngineMetrics metrics = new EngineMetrics(1);
+        Engine engine = new Engine(new EngineConfig().setMetrics(metrics));
+        engine.update();
+        engine.update();
+        metrics.getFrameTime(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSharedMetrics() {
+        EngineMetrics metrics = new EngineMetrics(1);
+        new Engine(new EngineConfig().setMetrics(metrics));
+        new Engine(new EngineConfig().setMetrics(metrics));
+    }
+}
@@ -21,6 +21,7 @@
  ******************************************************************************/
 package com.github.antag99.retinazer;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -29,8 +30,15 @@ import java.util.Set;
 
 import org.junit.Test;
 
+import com.github.antag99.retinazer.util.IntBag;
+import com.github.antag99.retinazer.util.Mask;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class EngineTest {
     private List<EntitySystem> initializedSystems = new ArrayList<>();
@@ -347,4 +355,241 @@ public class EngineTest {
         // assertSame(null, system.mBad);
         // assertSame(null, system.mWorse);
     }
+
+    public static class ServiceConsumer {
+        private @Wire Engine engine;
+        private @Wire MissingService service;
+    }
+
+    @Test
+    public void testCustomWireResolver() throws Throwable {
+        final MissingService service = new MissingService();
+        Engine engine = new Engine(new EngineConfig().addWireResolver(new WireResolver() {
+            @Override
+            public boolean wire(Engine engine, Object object, Field field) throws Throwable {
+                if (field.getType() != MissingService.class)
+                    return false;
+                field.set(object, service);
+                return true;
+            }
+
+            @Override
+            public boolean unwire(Engine engine, Object object, Field field) throws Throwable {
+                if (field.getType() != MissingService.class)
+                    return false;
+                field.set(object, null);
+                return true;
+            }
+        }));
+        ServiceConsumer consumer = new ServiceConsumer();
+        for (int i = 0; i < 2; i++) {
+            engine.wire(consumer);
+            assertSame(engine, consumer.engine);
+            assertSame(service, consumer.service);
+            engine.unwire(consumer);
+            assertNull(consumer.engine);
+            assertNull(consumer.service);
+        }
+    }
+
+    @Test
+    public void testHandles() {
+        Engine engine = new Engine(new EngineConfig());
+        int entity = engine.createEntity();
+        long handle = engine.getHandle(entity);
+        assertEquals(entity, EntityHandle.getEntity(handle));
+        assertTrue(engine.isAlive(handle));
+        engine.destroyEntity(entity);
+        engine.update();
+        assertFalse(engine.isAlive(handle));
+        assertEquals(entity, engine.createEntity());
+        assertFalse(engine.isAlive(handle));
+        long newHandle = engine.getHandle(entity);
+        assertNotEquals(handle, newHandle);
+        assertTrue(engine.isAlive(newHandle));
+        assertEquals(EntityHandle.getGeneration(handle) + 1, EntityHandle.getGeneration(newHandle));
+        assertFalse(engine.isAlive(EntityHandle.of(1000, 1)));
+    }
+
+    @Test
+    public void testIndexReuse() {
+        for (boolean preferLowestIndices : new boolean[] { true, false }) {
+            Engine engine = new Engine(new EngineConfig()
+                    .setPreferLowestIndices(preferLowestIndices));
+            for (int i = 0; i < 200; i++) {
+                assertEquals(i, engine.createEntity());
+            }
+            engine.destroyEntity(150);
+            engine.destroyEntity(3);
+            engine.destroyEntity(70);
+            engine.update();
+            engine.destroyEntity(3);
+            engine.destroyEntity(100);
+            engine.update();
+            if (preferLowestIndices) {
+                assertEquals(3, engine.createEntity());
+                assertEquals(70, engine.createEntity());
+                assertEquals(100, engine.createEntity());
+                assertEquals(150, engine.createEntity());
+            } else {
+                assertEquals(100, engine.createEntity());
+                assertEquals(150, engine.createEntity());
+                assertEquals(70, engine.createEntity());
+                assertEquals(3, engine.createEntity());
+            }
+            assertEquals(200, engine.createEntity());
+        }
+    }
+
+    @Test
+    public void testCreateEntities() {
+        Engine engine = new Engine(new EngineConfig());
+        for (int i = 0; i < 10; i++) {
+            engine.createEntity();
+        }
+        engine.destroyEntity(4);
+        engine.destroyEntity(7);
+        engine.update();
+
+        IntBag out = new IntBag();
+        engine.createEntities(100, out, FlagComponentA.class, FlagComponentB.class);
+        assertEquals(4, out.get(0));
+        assertEquals(7, out.get(1));
+        for (int i = 2; i < 100; i++) {
+            assertEquals(8 + i, out.get(i));
+        }
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        Mapper<FlagComponentB> mFlagB = engine.getMapper(FlagComponentB.class);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(mFlagA.has(out.get(i)));
+            assertTrue(mFlagB.has(out.get(i)));
+        }
+        engine.update();
+        assertEquals(108, engine.getEntities().size());
+        assertEquals(100, engine.getFamily(Family.with(FlagComponentA.class, FlagComponentB.class))
+                .getEntities().size());
+
+        engine.createEntities(3, out);
+        assertEquals(108, out.get(0));
+        assertEquals(110, out.get(2));
+        engine.update();
+        assertEquals(111, engine.getEntities().size());
+        assertTrue(engine.isAlive(engine.getHandle(110)));
+    }
+
+    @Test
+    public void testDestroyEntities() {
+        Engine engine = new Engine(new EngineConfig());
+        IntBag out = new IntBag();
+        engine.createEntities(300, out, FlagComponentA.class);
+        engine.update();
+        Mask entities = new Mask();
+        entities.set(10, 200);
+        engine.destroyEntities(entities);
+        engine.update();
+        assertEquals(110, engine.getEntities().size());
+        assertEquals(110, engine.getFamily(Family.with(FlagComponentA.class)).getEntities().size());
+        assertFalse(engine.getMapper(FlagComponentA.class).has(10));
+        engine.destroyEntities(engine.getFamily(Family.with(FlagComponentA.class)).getEntities());
+        engine.update();
+        assertEquals(0, engine.getEntities().size());
+    }
+
+    public static final class CreatingSystem extends EntitySystem {
+        private Mapper<FlagComponentA> mFlagA;
+
+        @Override
+        protected void update() {
+            mFlagA.create(engine.createEntity());
+        }
+    }
+
+    public static final class CountingSystem extends EntitySystem {
+        @SkipWire
+        private EntitySet entities;
+        @SkipWire
+        int count;
+
+        @Override
+        protected void setup() {
+            super.setup();
+            entities = engine.getFamily(Family.with(FlagComponentA.class)).getEntities();
+        }
+
+        @Override
+        protected void update() {
+            count = entities.size();
+        }
+    }
+
+    private static int countAfterFirstUpdate(FlushPolicy flushPolicy, Priority countingPriority) {
+        CountingSystem counting = new CountingSystem();
+        Engine engine = new Engine(new EngineConfig()
+                .setFlushPolicy(flushPolicy)
+                .addSystem(new CreatingSystem(), Priority.HIGH)
+                .addSystem(counting, countingPriority));
+        engine.update();
+        return counting.count;
+    }
+
+    @Test
+    public void testFlushPolicy() {
+        assertEquals(1, countAfterFirstUpdate(FlushPolicy.PER_SYSTEM, Priority.HIGH));
+        assertEquals(1, countAfterFirstUpdate(FlushPolicy.PER_SYSTEM, Priority.DEFAULT));
+        assertEquals(0, countAfterFirstUpdate(FlushPolicy.PER_PRIORITY, Priority.HIGH));
+        assertEquals(1, countAfterFirstUpdate(FlushPolicy.PER_PRIORITY, Priority.DEFAULT));
+        assertEquals(0, countAfterFirstUpdate(FlushPolicy.PER_FRAME, Priority.DEFAULT));
+    }
+
+    @SkipFlush
+    public static final class SkippingSystem extends EntitySystem {
+        private Mapper<FlagComponentA> mFlagA;
+
+        @Override
+        protected void update() {
+            mFlagA.create(engine.createEntity());
+        }
+    }
+
+    @Test
+    public void testSkipFlush() {
+        CountingSystem counting = new CountingSystem();
+        Engine engine = new Engine(new EngineConfig()
+                .addSystem(new SkippingSystem())
+                .addSystem(counting));
+        engine.update();
+        assertEquals(0, counting.count);
+        assertEquals(1, engine.getFamily(Family.with(FlagComponentA.class)).getEntities().size());
+
+        counting = new CountingSystem();
+        engine = new Engine(new EngineConfig()
+                .addSystem(new SkippingSystem())
+                .addSystem(counting)
+                .setSkipFlush(SkippingSystem.class, false));
+        engine.update();
+        assertEquals(1, counting.count);
+
+        counting = new CountingSystem();
+        engine = new Engine(new EngineConfig()
+                .addSystem(new CreatingSystem())
+                .addSystem(counting)
+                .setSkipFlush(CreatingSystem.class, true));
+        engine.update();
+        assertEquals(0, counting.count);
+    }
+
+    @Test
+    public void testFlushPerFrame() {
+        CountingSystem counting = new CountingSystem();
+        Engine engine = new Engine(new EngineConfig()
+                .setFlushPolicy(FlushPolicy.PER_FRAME)
+                .addSystem(new CreatingSystem())
+                .addSystem(counting));
+        engine.update();
+        assertEquals(0, counting.count);
+        // Changes are flushed at the end of the frame
+        assertEquals(1, engine.getFamily(Family.with(FlagComponentA.class)).getEntities().size());
+        engine.update();
+        assertEquals(1, counting.count);
+    }
 }
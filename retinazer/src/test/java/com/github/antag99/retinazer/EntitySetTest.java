@@ -1,11 +1,17 @@
 package com.github.antag99.retinazer;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.Test;
 
 import com.github.antag99.retinazer.util.Mask;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class EntitySetTest {
     public static final class TestEntitySetListener implements EntityListener {
@@ -107,6 +113,69 @@ public class EntitySetTest {
         assertEquals("[0, 2, 4]", set.toString());
     }
 
+    @Test
+    public void testSize() {
+        EntitySet set = new EntitySet();
+        assertEquals(0, set.size());
+        assertTrue(set.isEmpty());
+        set.edit().addEntity(3);
+        set.edit().addEntity(3);
+        set.edit().addEntity(100);
+        assertEquals(2, set.size());
+        assertFalse(set.isEmpty());
+
+        Mask mask = new Mask();
+        mask.set(3);
+        mask.set(64);
+        mask.set(65);
+        set.edit().addEntities(mask);
+        assertEquals(4, set.size());
+        assertEquals(set.getMask().cardinality(), set.size());
+
+        mask.clear(65);
+        mask.set(1000);
+        set.edit().removeEntities(mask);
+        assertEquals(2, set.size());
+        set.edit().removeEntity(65);
+        set.edit().removeEntity(65);
+        assertEquals(1, set.size());
+        set.edit().clear();
+        assertEquals(0, set.size());
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void testIncrementalIndices() {
+        EntitySet set = new EntitySet();
+        Mask expected = new Mask();
+        Random random = new Random(99L);
+
+        for (int i = 0; i < 2000; i++) {
+            set.edit().addEntity(i);
+            expected.set(i);
+        }
+
+        for (int iteration = 0; iteration < 500; iteration++) {
+            // Mostly small changes, which are patched, and occasionally large
+            // changes, which cause a rebuild.
+            int changes = random.nextInt(20) == 0 ? 500 : random.nextInt(8);
+            for (int i = 0; i < changes; i++) {
+                int entity = random.nextInt(3000);
+                if (random.nextBoolean()) {
+                    set.edit().addEntity(entity);
+                    expected.set(entity);
+                } else {
+                    set.edit().removeEntity(entity);
+                    expected.clear(entity);
+                }
+            }
+
+            int[] expectedIndices = expected.getIndices();
+            assertEquals(expectedIndices.length, set.size());
+            assertArrayEquals(expectedIndices, Arrays.copyOf(set.getIndices().buffer, set.size()));
+        }
+    }
+
     @Test(expected = RetinazerException.class)
     public void testUnmodifiable() {
         new EntitySet().view().edit().addEntity(0);
@@ -2,8 +2,12 @@ package com.github.antag99.retinazer;
 
 import static org.junit.Assert.*;
 
+import java.util.Random;
+
 import org.junit.Test;
 
+import com.github.antag99.retinazer.util.Mask;
+
 public class FamilyTest {
     @Test
     public void testHashCode() {
@@ -36,4 +40,63 @@ public class FamilyTest {
         assertNotSame(engine.getFamily(Family.with(FlagComponentA.class)),
                 engine.getFamily(Family.exclude(FlagComponentA.class)));
     }
+
+    @Test
+    public void testMembership() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        Mapper<FlagComponentB> mFlagB = engine.getMapper(FlagComponentB.class);
+        EntitySet familyA = engine.getFamily(Family.with(FlagComponentA.class)).getEntities();
+        EntitySet familyAB = engine.getFamily(Family.with(FlagComponentA.class, FlagComponentB.class)).getEntities();
+        EntitySet familyNotB = engine.getFamily(Family.exclude(FlagComponentB.class)).getEntities();
+
+        Mask entities = new Mask();
+        Random random = new Random(1234L);
+
+        for (int frame = 0; frame < 50; frame++) {
+            for (int i = 0; i < 20; i++) {
+                int entity = random.nextInt(300);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        entities.set(engine.createEntity());
+                        break;
+                    case 1:
+                        if (entities.get(entity)) {
+                            engine.destroyEntity(entity);
+                            entities.clear(entity);
+                        }
+                        break;
+                    case 2:
+                        if (entities.get(entity) && !mFlagA.has(entity))
+                            mFlagA.create(entity);
+                        else
+                            mFlagA.remove(entity);
+                        break;
+                    case 3:
+                        if (entities.get(entity) && !mFlagB.has(entity))
+                            mFlagB.create(entity);
+                        else
+                            mFlagB.remove(entity);
+                        break;
+                }
+            }
+
+            engine.update();
+
+            Mask expectedA = new Mask(), expectedAB = new Mask(), expectedNotB = new Mask();
+            for (int e = entities.nextSetBit(0); e != -1; e = entities.nextSetBit(e + 1)) {
+                if (mFlagA.has(e))
+                    expectedA.set(e);
+                if (mFlagA.has(e) && mFlagB.has(e))
+                    expectedAB.set(e);
+                if (!mFlagB.has(e))
+                    expectedNotB.set(e);
+            }
+
+            assertEquals(entities, engine.getEntities().getMask());
+            assertEquals(expectedA, familyA.getMask());
+            assertEquals(expectedAB, familyAB.getMask());
+            assertEquals(expectedNotB, familyNotB.getMask());
+        }
+    }
 }
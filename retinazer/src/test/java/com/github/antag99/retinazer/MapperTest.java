@@ -1,7 +1,13 @@
 package com.github.antag99.retinazer;
 
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CyclicBarrier;
+
 import org.junit.Test;
 
+import com.github.antag99.retinazer.util.Mask;
+
 public class MapperTest {
 
     // This should usually not be done... bad.
@@ -54,4 +60,176 @@ public class MapperTest {
         mFlagA.add(entity, new FlagComponentA());
         mFlagA.add(entity, new FlagComponentA());
     }
+
+    @Test
+    public void testRemoveAll() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        Mask entities = new Mask();
+        for (int i = 0; i < 300; i++) {
+            int entity = engine.createEntity();
+            if (i % 2 == 0)
+                mFlagA.create(entity);
+            if (i % 3 == 0)
+                entities.set(entity);
+        }
+        engine.update();
+        mFlagA.removeAll(entities);
+        assertTrue(mFlagA.has(0));
+        engine.update();
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i % 2 == 0 && i % 3 != 0, mFlagA.has(i));
+        }
+        assertEquals(100, engine.getFamily(Family.with(FlagComponentA.class)).getEntities().size());
+    }
+
+    @Pooled
+    public static final class PooledComponent implements Component, Poolable {
+        public int value;
+        public boolean reset;
+
+        @Override
+        public void reset() {
+            value = 0;
+            reset = true;
+        }
+    }
+
+    @Test
+    public void testPooling() {
+        Engine engine = new Engine(new EngineConfig()
+                .setPooled(FlagComponentA.class, true));
+        Mapper<PooledComponent> mPooled = engine.getMapper(PooledComponent.class);
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        int entity = engine.createEntity();
+        PooledComponent component = mPooled.create(entity);
+        component.value = 5;
+        FlagComponentA flagA = mFlagA.create(entity);
+        engine.update();
+        engine.destroyEntity(entity);
+        engine.update();
+        assertTrue(component.reset);
+        assertEquals(0, component.value);
+
+        int other = engine.createEntity();
+        assertSame(component, mPooled.create(other));
+        assertSame(flagA, mFlagA.create(other));
+        assertNotSame(component, mPooled.create(engine.createEntity()));
+    }
+
+    @Test
+    public void testPoolingDisabled() {
+        Engine engine = new Engine(new EngineConfig()
+                .setPooled(PooledComponent.class, false));
+        Mapper<PooledComponent> mPooled = engine.getMapper(PooledComponent.class);
+        int entity = engine.createEntity();
+        PooledComponent component = mPooled.create(entity);
+        engine.update();
+        mPooled.remove(entity);
+        engine.update();
+        assertFalse(component.reset);
+        assertNotSame(component, mPooled.create(entity));
+    }
+
+    @Test
+    public void testComponentFactory() {
+        final int[] created = new int[1];
+        Engine engine = new Engine(new EngineConfig()
+                .setComponentFactory(BadComponent.class, new ComponentFactory<BadComponent>() {
+                    @Override
+                    public BadComponent create() {
+                        created[0]++;
+                        return new BadComponent(0);
+                    }
+                }));
+        Mapper<BadComponent> mBad = engine.getMapper(BadComponent.class);
+        BadComponent component = mBad.create(engine.createEntity());
+        assertNotNull(component);
+        assertEquals(1, created[0]);
+        assertNotNull(engine.getMapper(FlagComponentA.class).create(engine.createEntity()));
+    }
+
+    @Tag
+    public static final class TagComponent implements Component {
+    }
+
+    @Test
+    public void testTag() {
+        Engine engine = new Engine(new EngineConfig()
+                .setTag(FlagComponentA.class, true));
+        Mapper<TagComponent> mTag = engine.getMapper(TagComponent.class);
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        int entity = engine.createEntity();
+        int other = engine.createEntity();
+        assertNull(mTag.get(entity));
+        TagComponent tag = mTag.create(entity);
+        mTag.add(other, new TagComponent());
+        assertSame(tag, mTag.get(entity));
+        assertSame(tag, mTag.get(other));
+        assertSame(mFlagA.create(entity), mFlagA.create(other));
+        assertEquals(0, mTag.components.buffer.length);
+        engine.update();
+        assertEquals(2, engine.getFamily(Family.with(TagComponent.class, FlagComponentA.class))
+                .getEntities().size());
+        mTag.remove(entity);
+        engine.destroyEntity(other);
+        engine.update();
+        assertFalse(mTag.has(entity));
+        assertFalse(mTag.has(other));
+        assertEquals(0, engine.getFamily(Family.with(TagComponent.class)).getEntities().size());
+    }
+
+    @Tag
+    public static final class DataTagComponent implements Component {
+        public static final int CONSTANT = 1;
+        public int value;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTagWithData() {
+        Engine engine = new Engine(new EngineConfig());
+        engine.getMapper(DataTagComponent.class);
+    }
+
+    @Test
+    public void testConcurrentLookup() throws Exception {
+        final Engine engine = new Engine(new EngineConfig());
+        @SuppressWarnings("unchecked")
+        final Class<? extends Component>[] types = new Class[] {
+                FlagComponentA.class, FlagComponentB.class, FlagComponentC.class,
+                BadComponent.class, PooledComponent.class, TagComponent.class };
+        final CyclicBarrier barrier = new CyclicBarrier(4);
+        final Mapper<?>[][] mappers = new Mapper<?>[4][types.length];
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                    } catch (Exception ex) {
+                        throw new AssertionError(ex);
+                    }
+                    for (int ii = 0; ii < types.length; ii++) {
+                        // Each thread looks up the types in a different order
+                        int type = (ii + thread) % types.length;
+                        mappers[thread][type] = engine.getMapper(types[type]);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < types.length; i++) {
+            Mapper<?> mapper = engine.getMapper(types[i]);
+            for (int ii = 0; ii < threads.length; ii++) {
+                assertSame(mapper, mappers[ii][i]);
+            }
+        }
+        assertEquals(types.length, engine.componentManager.array.length);
+    }
 }
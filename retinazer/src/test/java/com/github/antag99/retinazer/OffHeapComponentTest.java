@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class OffHeapComponentTest {
+    public static final class Body extends OffHeapComponent {
+        public Body() {
+            super(16);
+        }
+
+        public float getMass() {
+            return getFloat(0);
+        }
+
+        public void setMass(float value) {
+            setFloat(0, value);
+        }
+
+        public int getFlags() {
+            return getInt(4);
+        }
+
+        public void setFlags(int value) {
+            setInt(4, value);
+        }
+
+        public double getCharge() {
+            return getDouble(8);
+        }
+
+        public void setCharge(double value) {
+            setDouble(8, value);
+        }
+    }
+
+    /** Stride that is not a multiple of eight bytes */
+    public static final class Cell extends OffHeapComponent {
+        public Cell() {
+            super(11);
+        }
+
+        public long getBits() {
+            return getLong(0);
+        }
+
+        public void setBits(long value) {
+            setLong(0, value);
+        }
+
+        public short getCount() {
+            return getShort(8);
+        }
+
+        public void setCount(short value) {
+            setShort(8, value);
+        }
+
+        public byte getTag() {
+            return getByte(10);
+        }
+
+        public void setTag(byte value) {
+            setByte(10, value);
+        }
+    }
+
+    @Test
+    public void testOffHeapComponent() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<Body> mBody = engine.getMapper(Body.class);
+        for (int i = 0; i < 1000; i++) {
+            Body body = mBody.create(engine.createEntity());
+            body.setMass(i);
+            body.setFlags(i * 2);
+            body.setCharge(-i);
+        }
+        Body flyweight = mBody.createFlyweight();
+        for (int i = 0; i < 1000; i++) {
+            flyweight.setIndex(i);
+            assertEquals(i, flyweight.getMass(), 0f);
+            assertEquals(i * 2, flyweight.getFlags());
+            assertEquals(-i, flyweight.getCharge(), 0.0);
+        }
+
+        engine.update();
+        mBody.remove(10);
+        assertTrue(mBody.has(10));
+        assertEquals(10, mBody.get(10).getMass(), 0f);
+        engine.update();
+        assertFalse(mBody.has(10));
+        assertEquals(0f, mBody.create(10).getMass(), 0f);
+    }
+
+    @Test
+    public void testGrowth() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<Body> mBody = engine.getMapper(Body.class);
+        // Each entity grows the buffer, by doubling it or to the needed size
+        for (int i = 0; i < 5000; i += 7) {
+            Body body = mBody.create(i);
+            body.setMass(i);
+            body.setCharge(i * 0.5);
+        }
+        for (int i = 0; i < 5000; i++) {
+            if (i % 7 == 0) {
+                assertEquals(i, mBody.get(i).getMass(), 0f);
+                assertEquals(i * 0.5, mBody.get(i).getCharge(), 0.0);
+            } else {
+                assertFalse(mBody.has(i));
+            }
+        }
+    }
+
+    @Test
+    public void testRemoveThenFlush() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<Body> mBody = engine.getMapper(Body.class);
+        EntitySet bodies = engine.getFamily(Family.with(Body.class)).getEntities();
+        for (int i = 0; i < 100; i++) {
+            mBody.create(engine.createEntity()).setFlags(i);
+        }
+        engine.update();
+        for (int i = 0; i < 100; i += 2) {
+            mBody.remove(i);
+        }
+        // Removals are applied when changes are flushed
+        assertEquals(100, bodies.size());
+        engine.update();
+        assertEquals(50, bodies.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 != 0, mBody.has(i));
+            if (i % 2 != 0)
+                assertEquals(i, mBody.get(i).getFlags());
+        }
+    }
+
+    @Test
+    public void testReuseIndex() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<Body> mBody = engine.getMapper(Body.class);
+        int entity = engine.createEntity();
+        Body body = mBody.create(entity);
+        body.setMass(1f);
+        body.setFlags(2);
+        body.setCharge(3.0);
+        engine.update();
+        engine.destroyEntity(entity);
+        engine.update();
+
+        int reused = engine.createEntity();
+        assertEquals(entity, reused);
+        assertFalse(mBody.has(reused));
+        body = mBody.create(reused);
+        assertEquals(0f, body.getMass(), 0f);
+        assertEquals(0, body.getFlags());
+        assertEquals(0.0, body.getCharge(), 0.0);
+    }
+
+    @Test
+    public void testAdd() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<Body> mBody = engine.getMapper(Body.class);
+        Body body = mBody.create(engine.createEntity());
+        body.setMass(5f);
+        body.setCharge(-2.0);
+        int other = engine.createEntity();
+        mBody.add(other, mBody.get(0));
+        assertEquals(5f, mBody.get(other).getMass(), 0f);
+        assertEquals(-2.0, mBody.get(other).getCharge(), 0.0);
+    }
+
+    @Test
+    public void testOddStride() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<Cell> mCell = engine.getMapper(Cell.class);
+        for (int i = 0; i < 3; i++) {
+            Cell cell = mCell.create(engine.createEntity());
+            cell.setBits(-1L);
+            cell.setCount((short) -1);
+            cell.setTag((byte) -1);
+        }
+        engine.update();
+        engine.destroyEntity(1);
+        engine.update();
+
+        // Only the data of the recreated entity is zeroed
+        Cell cell = mCell.create(engine.createEntity());
+        assertEquals(0L, cell.getBits());
+        assertEquals(0, cell.getCount());
+        assertEquals(0, cell.getTag());
+        assertEquals((byte) -1, mCell.get(0).getTag());
+        assertEquals(-1L, mCell.get(2).getBits());
+
+        // Only the data of the target entity is overwritten
+        cell = mCell.get(1);
+        cell.setBits(0x0102030405060708L);
+        cell.setCount((short) 9);
+        cell.setTag((byte) 10);
+        mCell.remove(2);
+        engine.update();
+        mCell.add(2, mCell.get(1));
+        assertEquals(0x0102030405060708L, mCell.get(2).getBits());
+        assertEquals(9, mCell.get(2).getCount());
+        assertEquals(10, mCell.get(2).getTag());
+        assertEquals(-1L, mCell.get(0).getBits());
+        assertEquals((byte) -1, mCell.get(0).getTag());
+    }
+
+    @Test
+    public void testSizeLimit() {
+        Engine engine = new Engine(new EngineConfig());
+        Body body = engine.getMapper(Body.class).createFlyweight();
+        // 16 bytes per entity; this entity would start at 2 GB
+        body.setIndex(1 << 27);
+        try {
+            body.reset();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            body.getMass();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
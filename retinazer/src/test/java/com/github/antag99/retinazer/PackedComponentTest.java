@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.github.antag99.retinazer.util.FloatBag;
+import com.github.antag99.retinazer.util.IntBag;
+
+public class PackedComponentTest {
+    public static final class Position extends PackedComponent {
+        private final FloatBag x = new FloatBag();
+        private final FloatBag y = new FloatBag();
+
+        public float getX() {
+            return x.buffer[index];
+        }
+
+        public void setX(float value) {
+            x.buffer[index] = value;
+        }
+
+        public float getY() {
+            return y.buffer[index];
+        }
+
+        public void setY(float value) {
+            y.buffer[index] = value;
+        }
+
+        @Override
+        protected void reset() {
+            x.set(index, 0f);
+            y.set(index, 0f);
+        }
+    }
+
+    @Test
+    public void testPackedComponent() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<Position> mPosition = engine.getMapper(Position.class);
+        int entity = engine.createEntity();
+        int other = engine.createEntity();
+        assertFalse(mPosition.has(entity));
+        assertNull(mPosition.get(entity));
+
+        Position position = mPosition.create(entity);
+        position.setX(1f);
+        position.setY(2f);
+        mPosition.create(other).setX(3f);
+        assertTrue(mPosition.has(entity));
+        assertEquals(1f, mPosition.get(entity).getX(), 0f);
+        assertEquals(2f, mPosition.get(entity).getY(), 0f);
+        assertEquals(3f, mPosition.get(other).getX(), 0f);
+        assertSame(mPosition.get(entity), mPosition.get(other));
+
+        Position flyweight = mPosition.createFlyweight();
+        assertNotSame(position, flyweight);
+        flyweight.setIndex(entity);
+        assertEquals(1f, flyweight.getX(), 0f);
+
+        engine.update();
+        assertEquals(2, engine.getFamily(Family.with(Position.class)).getEntities().size());
+        mPosition.remove(entity);
+        assertTrue(mPosition.has(entity));
+        engine.update();
+        assertFalse(mPosition.has(entity));
+        assertEquals(1, engine.getFamily(Family.with(Position.class)).getEntities().size());
+        assertEquals(0f, mPosition.create(entity).getX(), 0f);
+    }
+
+    @Test
+    public void testCreateEntities() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<Position> mPosition = engine.getMapper(Position.class);
+        IntBag out = new IntBag();
+        engine.createEntities(100, out, Position.class);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0f, mPosition.get(out.get(i)).getY(), 0f);
+        }
+    }
+
+    @Test
+    public void testAdd() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<Position> mPosition = engine.getMapper(Position.class);
+        int entity = engine.createEntity();
+        int other = engine.createEntity();
+        Position position = mPosition.create(entity);
+        position.setX(1f);
+        position.setY(2f);
+        // The added instance is the flyweight of the mapper
+        mPosition.add(other, mPosition.get(entity));
+        assertEquals(1f, mPosition.get(other).getX(), 0f);
+        assertEquals(2f, mPosition.get(other).getY(), 0f);
+        assertEquals(1f, mPosition.get(entity).getX(), 0f);
+
+        Engine otherEngine = new Engine(new EngineConfig());
+        Mapper<Position> mOtherPosition = otherEngine.getMapper(Position.class);
+        int copied = otherEngine.createEntity();
+        mOtherPosition.add(copied, mPosition.get(other));
+        assertEquals(2f, mOtherPosition.get(copied).getY(), 0f);
+    }
+
+    public static final class MovingSystem extends ParallelEntityProcessorSystem {
+        private Mapper<Position> mPosition;
+
+        public MovingSystem() {
+            super(Family.with(Position.class));
+        }
+
+        @Override
+        protected void process(int entity) {
+            Position position = mPosition.get(entity);
+            position.setX(position.getX() + entity);
+            position.setY(position.getIndex());
+        }
+    }
+
+    @Test
+    public void testParallelFlyweights() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Engine engine = new Engine(new EngineConfig()
+                .addSystem(new MovingSystem())
+                .setForkJoinPool(pool)
+                .setMinChunkSize(16));
+        Mapper<Position> mPosition = engine.getMapper(Position.class);
+        IntBag out = new IntBag();
+        engine.createEntities(10000, out, Position.class);
+        for (int i = 0; i < 10; i++) {
+            engine.update();
+        }
+        for (int i = 0; i < 10000; i++) {
+            int entity = out.get(i);
+            assertEquals(entity * 10f, mPosition.get(entity).getX(), 0f);
+            assertEquals(entity, mPosition.get(entity).getY(), 0f);
+        }
+        pool.shutdown();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCreateFlyweight() {
+        Engine engine = new Engine(new EngineConfig());
+        engine.getMapper(FlagComponentA.class).createFlyweight();
+    }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import static org.junit.Assert.*;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+public class ParallelEntityProcessorSystemTest {
+    public static final class CountingSystem extends ParallelEntityProcessorSystem {
+        @SkipWire
+        public AtomicIntegerArray counts = new AtomicIntegerArray(10000);
+
+        public CountingSystem() {
+            super(Family.with(FlagComponentA.class));
+        }
+
+        @Override
+        protected void process(int entity) {
+            counts.incrementAndGet(entity);
+        }
+    }
+
+    @Test
+    public void testParallelProcessing() {
+        CountingSystem system = new CountingSystem();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Engine engine = new Engine(new EngineConfig()
+                .addSystem(system)
+                .setForkJoinPool(pool)
+                .setMinChunkSize(16));
+        assertSame(pool, engine.getForkJoinPool());
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        for (int i = 0; i < 10000; i++) {
+            int entity = engine.createEntity();
+            if (i % 3 != 0)
+                mFlagA.create(entity);
+        }
+        engine.update();
+        engine.update();
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i % 3 != 0 ? 2 : 0, system.counts.get(i));
+        }
+        pool.shutdown();
+    }
+
+    public static final class ChunkSystem extends ParallelEntityProcessorSystem {
+        @SkipWire
+        public Set<Integer> chunkStarts = new ConcurrentSkipListSet<>();
+
+        public ChunkSystem() {
+            super(Family.with(FlagComponentA.class));
+        }
+
+        @Override
+        protected void process(int entity) {
+            // The task key encodes the start of the chunk being processed
+            chunkStarts.add((int) engine.getTaskCommandBuffer().key - 1);
+        }
+    }
+
+    @Test
+    public void testChunkSizes() {
+        ChunkSystem system = new ChunkSystem();
+        Engine engine = new Engine(new EngineConfig()
+                .addSystem(system)
+                .setMinChunkSize(100));
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        for (int i = 0; i < 1000; i++) {
+            mFlagA.create(engine.createEntity());
+        }
+        engine.update();
+
+        int previous = -1;
+        for (int start : system.chunkStarts) {
+            if (previous != -1) {
+                assertTrue(start - previous >= 100);
+                assertTrue(start - previous < 200);
+            }
+            previous = start;
+        }
+        assertTrue(1000 - previous >= 100);
+        assertEquals(8, system.chunkStarts.size());
+    }
+
+    @Test
+    public void testSharedPool() {
+        Engine engine = new Engine(new EngineConfig());
+        Engine other = new Engine(new EngineConfig());
+        assertSame(engine.getForkJoinPool(), other.getForkJoinPool());
+    }
+
+    @Test
+    public void testSequentialFallback() {
+        CountingSystem system = new CountingSystem();
+        Engine engine = new Engine(new EngineConfig().addSystem(system));
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        mFlagA.create(engine.createEntity());
+        engine.update();
+        assertEquals(1, system.counts.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidChunkSize() {
+        new EngineConfig().setMinChunkSize(0);
+    }
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.antag99.retinazer.util.IntBag;
+
+public class SparseStorageTest {
+    @Sparse
+    public static final class RareComponent implements Component {
+        public int value;
+    }
+
+    @Test
+    public void testSparseStorage() {
+        Engine engine = new Engine(new EngineConfig());
+        Mapper<RareComponent> mRare = engine.getMapper(RareComponent.class);
+        IntBag out = new IntBag();
+        engine.createEntities(1 << 20, out);
+        Random random = new Random(123);
+        Map<Integer, RareComponent> expected = new HashMap<>();
+
+        for (int frame = 0; frame < 20; frame++) {
+            for (int i = 0; i < 50; i++) {
+                int entity = random.nextInt(1 << 20);
+                if (expected.containsKey(entity)) {
+                    mRare.remove(entity);
+                    expected.remove(entity);
+                } else if (!mRare.has(entity)) {
+                    RareComponent component = mRare.create(entity);
+                    component.value = entity;
+                    expected.put(entity, component);
+                }
+            }
+            engine.update();
+
+            assertEquals(expected.size(), mRare.getDenseSize());
+            assertEquals(expected.size(), engine.getFamily(Family.with(RareComponent.class)).getEntities().size());
+            for (int i = 0; i < mRare.getDenseSize(); i++) {
+                int entity = mRare.getDenseEntities().get(i);
+                assertSame(expected.get(entity), mRare.getDenseComponents().get(i));
+                assertSame(expected.get(entity), mRare.get(entity));
+                assertEquals(entity, mRare.get(entity).value);
+            }
+        }
+    }
+
+    @Test
+    public void testConfig() {
+        Engine engine = new Engine(new EngineConfig()
+                .setSparse(FlagComponentA.class, true)
+                .setSparse(RareComponent.class, false));
+        Mapper<FlagComponentA> mFlagA = engine.getMapper(FlagComponentA.class);
+        int entity = engine.createEntity();
+        FlagComponentA component = mFlagA.create(entity);
+        assertEquals(1, mFlagA.getDenseSize());
+        assertSame(component, mFlagA.get(entity));
+        engine.destroyEntity(entity);
+        engine.update();
+        assertEquals(0, mFlagA.getDenseSize());
+        assertFalse(mFlagA.has(entity));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotSparse() {
+        Engine engine = new Engine(new EngineConfig()
+                .setSparse(RareComponent.class, false));
+        engine.getMapper(RareComponent.class).getDenseSize();
+    }
+}
@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.antag99.retinazer.EngineConfig.EntitySystemRegistration;
+
+public class SystemSchedulerTest {
+    @Reads(FlagComponentA.class)
+    public static final class ReaderSystemA extends EntitySystem {
+    }
+
+    @Reads(FlagComponentA.class)
+    public static final class ReaderSystemB extends EntitySystem {
+    }
+
+    @Reads(FlagComponentA.class)
+    @Writes(FlagComponentB.class)
+    public static final class WriterSystem extends EntitySystem {
+    }
+
+    private static EntitySystem[][] schedule(EngineConfig config) {
+        return SystemScheduler.schedule(new ArrayList<EntitySystemRegistration>(config.systems));
+    }
+
+    @Test
+    public void testStages() {
+        EntitySystem readerA = new ReaderSystemA();
+        EntitySystem readerB = new ReaderSystemB();
+        EntitySystem writer = new WriterSystem();
+        EntitySystem undeclared = new FlagSystemA();
+        EntitySystem[][] stages = schedule(new EngineConfig()
+                .addSystem(readerA)
+                .addSystem(writer)
+                .addSystem(readerB)
+                .addSystem(undeclared));
+        assertEquals(2, stages.length);
+        assertArrayEquals(new EntitySystem[] { readerA, writer, readerB }, stages[0]);
+        assertArrayEquals(new EntitySystem[] { undeclared }, stages[1]);
+    }
+
+    @Test
+    public void testConflicts() {
+        EntitySystem readerA = new ReaderSystemA();
+        EntitySystem writer = new FlagSystemB();
+        EntitySystem readerB = new ReaderSystemB();
+        EntitySystem[][] stages = schedule(new EngineConfig()
+                .addSystem(readerA)
+                .addSystem(writer, Priority.DEFAULT, new AccessConfig().writes(FlagComponentA.class))
+                .addSystem(readerB));
+        assertEquals(3, stages.length);
+        assertArrayEquals(new EntitySystem[] { readerA }, stages[0]);
+        assertArrayEquals(new EntitySystem[] { writer }, stages[1]);
+        assertArrayEquals(new EntitySystem[] { readerB }, stages[2]);
+    }
+
+    @Test
+    public void testRegistrationOrder() {
+        EntitySystem writer = new FlagSystemA();
+        EntitySystem reader = new ReaderSystemA();
+        EntitySystem other = new FlagSystemB();
+        EntitySystem unordered = new FlagSystemC();
+        EntitySystem[][] stages = schedule(new EngineConfig()
+                .addSystem(writer, Priority.DEFAULT, new AccessConfig().writes(FlagComponentA.class))
+                .addSystem(reader)
+                .addSystem(other, Priority.DEFAULT, new AccessConfig().reads(FlagComponentB.class))
+                .addSystem(unordered, Priority.DEFAULT, new AccessConfig().reads(FlagComponentC.class).unordered()));
+        assertEquals(2, stages.length);
+        // Only the unordered system is updated alongside an earlier stage
+        assertArrayEquals(new EntitySystem[] { writer, unordered }, stages[0]);
+        assertArrayEquals(new EntitySystem[] { reader, other }, stages[1]);
+    }
+
+    @Test
+    public void testPriorities() {
+        EntitySystem readerA = new ReaderSystemA();
+        EntitySystem readerB = new ReaderSystemB();
+        EntitySystem[][] stages = schedule(new EngineConfig()
+                .addSystem(readerA, Priority.HIGH)
+                .addSystem(readerB, Priority.LOW));
+        assertEquals(2, stages.length);
+    }
+
+    public static class BarrierSystem extends EntitySystem {
+        @SkipWire
+        private CyclicBarrier barrier;
+
+        public BarrierSystem(CyclicBarrier barrier) {
+            this.barrier = barrier;
+        }
+
+        @Override
+        protected void update() {
+            try {
+                // Fails unless the other system is updated concurrently
+                barrier.await(10, TimeUnit.SECONDS);
+            } catch (Exception ex) {
+                throw new AssertionError(ex);
+            }
+        }
+    }
+
+    public static final class BarrierSystemA extends BarrierSystem {
+        public BarrierSystemA(CyclicBarrier barrier) {
+            super(barrier);
+        }
+    }
+
+    public static final class BarrierSystemB extends BarrierSystem {
+        public BarrierSystemB(CyclicBarrier barrier) {
+            super(barrier);
+        }
+    }
+
+    @Test
+    public void testConcurrentUpdate() {
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        BarrierSystem systemA = new BarrierSystemA(barrier);
+        BarrierSystem systemB = new BarrierSystemB(barrier);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        Engine engine = new Engine(new EngineConfig()
+                .setForkJoinPool(pool)
+                .addSystem(systemA, Priority.DEFAULT, new AccessConfig().reads(FlagComponentA.class))
+                .addSystem(systemB, Priority.DEFAULT, new AccessConfig().reads(FlagComponentB.class)));
+        engine.update();
+        pool.shutdown();
+    }
+
+    @InitializeAfter({ InitializingSystemA.class, InitializingSystemB.class })
+    public static final class DependentSystem extends EntitySystem {
+        @SkipWire
+        boolean initialized;
+        InitializingSystemA systemA;
+        InitializingSystemB systemB;
+
+        @Override
+        protected void initialize() {
+            assertTrue(systemA.initialized && systemB.initialized);
+            initialized = true;
+        }
+    }
+
+    public static class InitializingSystem extends EntitySystem {
+        @SkipWire
+        private CyclicBarrier barrier;
+        @SkipWire
+        volatile boolean initialized;
+
+        public InitializingSystem(CyclicBarrier barrier) {
+            this.barrier = barrier;
+        }
+
+        @Override
+        protected void initialize() {
+            try {
+                // Fails unless the other system is initialized concurrently
+                barrier.await(10, TimeUnit.SECONDS);
+            } catch (Exception ex) {
+                throw new AssertionError(ex);
+            }
+            initialized = true;
+        }
+    }
+
+    public static final class InitializingSystemA extends InitializingSystem {
+        public InitializingSystemA(CyclicBarrier barrier) {
+            super(barrier);
+        }
+    }
+
+    public static final class InitializingSystemB extends InitializingSystem {
+        public InitializingSystemB(CyclicBarrier barrier) {
+            super(barrier);
+        }
+    }
+
+    @InitializeAfter(CyclicSystemB.class)
+    public static final class CyclicSystemA extends EntitySystem {
+    }
+
+    @InitializeAfter(CyclicSystemA.class)
+    public static final class CyclicSystemB extends EntitySystem {
+    }
+
+    @Test
+    public void testInitializationStages() {
+        EntitySystem dependent = new DependentSystem();
+        EntitySystem systemA = new InitializingSystemA(null);
+        EntitySystem systemB = new InitializingSystemB(null);
+        EntitySystem independent = new FlagSystemA();
+        Map<Class<? extends EntitySystem>, EntitySystem> systemsByType = new HashMap<>();
+        for (EntitySystem system : new EntitySystem[] { dependent, systemA, systemB, independent })
+            systemsByType.put(system.getClass(), system);
+        EntitySystem[][] stages = SystemScheduler.scheduleInitialization(
+                new EntitySystem[] { dependent, systemA, systemB, independent }, systemsByType);
+        assertEquals(2, stages.length);
+        assertArrayEquals(new EntitySystem[] { systemA, systemB, independent }, stages[0]);
+        assertArrayEquals(new EntitySystem[] { dependent }, stages[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCyclicInitialization() {
+        new Engine(new EngineConfig()
+                .addSystem(new CyclicSystemA())
+                .addSystem(new CyclicSystemB()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingInitializationDependency() {
+        new Engine(new EngineConfig()
+                .addSystem(new DependentSystem()));
+    }
+
+    @Test
+    public void testConcurrentInitialization() {
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        DependentSystem dependent = new DependentSystem();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        new Engine(new EngineConfig()
+                .setForkJoinPool(pool)
+                .setParallelInitialization(true)
+                .addSystem(dependent, Priority.HIGH)
+                .addSystem(new InitializingSystemA(barrier))
+                .addSystem(new InitializingSystemB(barrier)));
+        assertTrue(dependent.initialized);
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Anton Gustafsson
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.github.antag99.retinazer.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HierarchicalMaskTest {
+
+    private static void assertSameBits(Mask expected, HierarchicalMask actual) {
+        assertEquals(expected, actual.getMask());
+        assertEquals(expected.cardinality(), actual.cardinality());
+        assertEquals(expected.length(), actual.length());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        assertArrayEquals(expected.getIndices(), actual.getIndices());
+        for (int i = expected.nextSetBit(0), j = actual.nextSetBit(0);; i = expected.nextSetBit(i + 1), j = actual.nextSetBit(j + 1)) {
+            assertEquals(i, j);
+            if (i == -1)
+                break;
+        }
+    }
+
+    @Test
+    public void testSparse() {
+        HierarchicalMask mask = new HierarchicalMask();
+        assertTrue(mask.isEmpty());
+        assertEquals(-1, mask.nextSetBit(0));
+
+        mask.set(3);
+        mask.set(100000);
+        assertEquals(3, mask.nextSetBit(0));
+        assertEquals(100000, mask.nextSetBit(4));
+        assertEquals(-1, mask.nextSetBit(100001));
+        assertEquals(2, mask.cardinality());
+        assertEquals(100001, mask.length());
+
+        mask.clear(100000);
+        assertEquals(-1, mask.nextSetBit(4));
+        mask.clear(3);
+        assertTrue(mask.isEmpty());
+    }
+
+    @Test
+    public void testIndices() {
+        HierarchicalMask mask = new HierarchicalMask();
+        mask.set(1);
+        mask.set(4);
+        mask.set(640);
+        IntBag bag = new IntBag();
+        bag.set(0, -1);
+        assertEquals(3, mask.getIndices(bag, 1));
+        assertEquals(-1, bag.get(0));
+        assertEquals(1, bag.get(1));
+        assertEquals(4, bag.get(2));
+        assertEquals(640, bag.get(3));
+    }
+
+    @Test
+    public void testOperations() {
+        Random random = new Random(42L);
+        Mask expected = new Mask();
+        HierarchicalMask actual = new HierarchicalMask();
+
+        for (int iteration = 0; iteration < 200; iteration++) {
+            Mask other = new Mask();
+            for (int i = 0, n = random.nextInt(10); i < n; i++)
+                other.set(random.nextInt(10000));
+
+            switch (random.nextInt(7)) {
+                case 0:
+                    int index = random.nextInt(10000);
+                    expected.set(index);
+                    actual.set(index);
+                    break;
+                case 1:
+                    index = expected.nextSetBit(random.nextInt(10000));
+                    if (index != -1) {
+                        expected.clear(index);
+                        actual.clear(index);
+                    }
+                    break;
+                case 2:
+                    expected.or(other);
+                    actual.or(other);
+                    break;
+                case 3:
+                    expected.andNot(other);
+                    actual.andNot(other);
+                    break;
+                case 4:
+                    assertEquals(expected.intersects(other), actual.intersects(other));
+                    assertEquals(expected.isSupersetOf(other), actual.isSupersetOf(other));
+                    assertEquals(expected.isSubsetOf(other), actual.isSubsetOf(other));
+                    expected.xor(other);
+                    actual.xor(other);
+                    break;
+                case 5:
+                    other.or(expected);
+                    expected.and(other);
+                    actual.and(other);
+                    break;
+                case 6:
+                    if (random.nextInt(10) == 0) {
+                        expected.clear();
+                        actual.clear();
+                    }
+                    break;
+            }
+
+            assertSameBits(expected, actual);
+        }
+
+        HierarchicalMask copy = new HierarchicalMask().set(actual);
+        assertEquals(actual, copy);
+        assertEquals(actual.hashCode(), copy.hashCode());
+        assertTrue(copy.isSupersetOf(actual));
+    }
+}
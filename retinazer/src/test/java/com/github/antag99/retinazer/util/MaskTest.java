@@ -62,4 +62,97 @@ public class MaskTest {
         mask.set(7);
         assertTrue(Arrays.equals(new int[] { 1, 4, 6, 7 }, mask.getIndices()));
     }
+
+    @Test
+    public void testDirtyWords() {
+        Mask mask = new Mask(true);
+        assertTrue(mask.getDirtyFrom() >= mask.getDirtyTo());
+        assertTrue(mask.isEmpty());
+        assertEquals(-1, mask.nextSetBit(0));
+
+        mask.set(200);
+        mask.set(700);
+        assertEquals(200 >> 6, mask.getDirtyFrom());
+        assertEquals((700 >> 6) + 1, mask.getDirtyTo());
+        assertEquals(200, mask.nextSetBit(0));
+        assertEquals(700, mask.nextSetBit(201));
+        assertEquals(-1, mask.nextSetBit(701));
+        assertEquals(2, mask.cardinality());
+        assertEquals(701, mask.length());
+
+        mask.clear();
+        assertTrue(mask.isEmpty());
+        assertTrue(mask.getDirtyFrom() >= mask.getDirtyTo());
+        assertEquals(-1, mask.nextSetBit(0));
+    }
+
+    @Test
+    public void testDirtyWordOperations() {
+        Mask tracked = new Mask(true);
+        Mask untracked = new Mask();
+        tracked.set(70);
+        tracked.set(300);
+        untracked.set(5);
+        untracked.set(300);
+        untracked.set(1000);
+
+        Mask result = new Mask(true);
+        result.set(3);
+        result.set(tracked);
+        assertArrayEquals(new int[] { 70, 300 }, result.getIndices());
+
+        result.or(untracked);
+        assertArrayEquals(new int[] { 5, 70, 300, 1000 }, result.getIndices());
+
+        result.andNot(tracked);
+        assertArrayEquals(new int[] { 5, 1000 }, result.getIndices());
+
+        result.and(untracked);
+        assertArrayEquals(new int[] { 5, 1000 }, result.getIndices());
+
+        untracked.andNot(tracked);
+        assertArrayEquals(new int[] { 5, 1000 }, untracked.getIndices());
+        assertTrue(untracked.isSupersetOf(result));
+        assertFalse(untracked.intersects(tracked));
+
+        result.set(new Mask(true));
+        assertTrue(result.isEmpty());
+        assertEquals(new Mask(), result);
+    }
+
+    @Test
+    public void testRangeOperations() {
+        Mask a = new Mask();
+        Mask b = new Mask();
+        a.set(1);
+        a.set(65);
+        b.set(2);
+        b.set(66);
+        b.set(130);
+
+        // Only the second word is affected
+        a.or(b, 1, 2);
+        assertArrayEquals(new int[] { 1, 65, 66 }, a.getIndices());
+        a.andNot(b, 1, 2);
+        assertArrayEquals(new int[] { 1, 65 }, a.getIndices());
+        a.set(b, 2, 3);
+        assertArrayEquals(new int[] { 1, 65, 130 }, a.getIndices());
+        a.and(b, 0, 2);
+        assertArrayEquals(new int[] { 130 }, a.getIndices());
+    }
+
+    @Test
+    public void testSetRange() {
+        int[][] ranges = { { 0, 0 }, { 0, 1 }, { 3, 64 }, { 0, 64 }, { 63, 65 },
+                { 10, 300 }, { 128, 192 }, { 70, 71 } };
+        for (int[] range : ranges) {
+            Mask mask = new Mask(true);
+            mask.set(range[0], range[1]);
+            Mask expected = new Mask();
+            for (int i = range[0]; i < range[1]; i++)
+                expected.set(i);
+            assertEquals(expected, mask);
+            assertEquals(range[1] - range[0], mask.cardinality());
+        }
+    }
 }